@@ -1,6 +1,7 @@
 package hr.algebra.photoapp.config;
 
 import hr.algebra.photoapp.service.security.CustomUserDetailsService;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -29,6 +30,9 @@ public class SecurityConfig {
                 .authenticationProvider(authenticationProvider())
 
                 .authorizeHttpRequests(auth -> auth
+                        // streamed responses finish on an async dispatch of an already authorized request
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                         .requestMatchers(
                                 "/",
                                 "/login",
@@ -36,6 +40,8 @@ public class SecurityConfig {
                                 "/firebase-login",
                                 "/photos",
                                 "/photos/view/**",
+                                "/photos/zoom/**",
+                                "/photos/tiles/**",
                                 "/uploads/**",
                                 "/css/**",
                                 "/js/**",
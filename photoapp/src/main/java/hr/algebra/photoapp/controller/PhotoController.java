@@ -1,26 +1,51 @@
 package hr.algebra.photoapp.controller;
 
+import hr.algebra.photoapp.dto.BatchUploadResult;
+import hr.algebra.photoapp.dto.ColorMatch;
+import hr.algebra.photoapp.dto.PhotoTransform;
+import hr.algebra.photoapp.dto.RenderedPhoto;
+import hr.algebra.photoapp.dto.SimilarPhoto;
 import hr.algebra.photoapp.model.Photo;
 import hr.algebra.photoapp.model.User;
 import hr.algebra.photoapp.service.PhotoService;
 import hr.algebra.photoapp.service.UserService;
+import hr.algebra.photoapp.util.ColorMatrix;
+import hr.algebra.photoapp.util.ColorSignature;
+import hr.algebra.photoapp.util.ImageProcessor;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 // Controller Pattern (MVC) + Facade Pattern
 // Handles all photo-related HTTP requests
@@ -28,6 +53,12 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class PhotoController {
 
+    // request attributes of Tomcat's sendfile support (the same ones its DefaultServlet uses)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final PhotoService photoService;
     private final UserService userService;
 
@@ -67,7 +98,7 @@ public class PhotoController {
 
         try {
             photoService.upload(file, description, hashtags, format, width, height);
-            redirectAttributes.addFlashAttribute("success", "Photo uploaded successfully");
+            redirectAttributes.addFlashAttribute("success", "Photo uploaded, processing continues in the background");
         } catch (IllegalStateException e) {
             if ("UPLOAD_LIMIT".equals(e.getMessage())) {
                 redirectAttributes.addFlashAttribute("error", 
@@ -75,10 +106,16 @@ public class PhotoController {
             } else if ("FILE_TOO_LARGE".equals(e.getMessage())) {
                 redirectAttributes.addFlashAttribute("error", 
                         "File is too large for your package");
+            } else if ("UNSUPPORTED_FORMAT".equals(e.getMessage())) {
+                redirectAttributes.addFlashAttribute("error",
+                        "File is not a supported image");
             } else {
                 redirectAttributes.addFlashAttribute("error", 
                         "Error: " + e.getMessage());
             }
+        } catch (ResponseStatusException e) {
+            // e.g. the decode memory budget is exhausted
+            redirectAttributes.addFlashAttribute("error", e.getReason());
         } catch (IOException e) {
             redirectAttributes.addFlashAttribute("error", 
                     "Failed to upload photo: " + e.getMessage());
@@ -87,6 +124,73 @@ public class PhotoController {
         return "redirect:/photos";
     }
 
+    // BATCH UPLOAD (one quota check and one transaction for all files, per-file report)
+    @PostMapping("/photos/upload/batch")
+    @ResponseBody
+    public Map<String, Object> uploadBatch(@RequestParam("files") List<MultipartFile> files,
+                                           @RequestParam(required = false) String description,
+                                           @RequestParam(required = false) String hashtags,
+                                           @RequestParam(required = false) String format,
+                                           @RequestParam(required = false) Integer width,
+                                           @RequestParam(required = false) Integer height) {
+        List<BatchUploadResult> results = photoService.uploadBatch(files, description, hashtags, format, width, height);
+
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (BatchUploadResult result : results) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("filename", result.getFilename());
+            if (result.isAccepted()) {
+                entry.put("photoId", result.getPhotoId());
+                entry.put("statusUrl", "/photos/status/" + result.getPhotoId());
+            } else {
+                entry.put("error", result.getError());
+            }
+            report.add(entry);
+        }
+
+        long accepted = results.stream().filter(BatchUploadResult::isAccepted).count();
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("accepted", accepted);
+        response.put("rejected", results.size() - accepted);
+        response.put("results", report);
+        return response;
+    }
+
+    // PRE-FLIGHT: lets a client skip sending bytes the user has already stored
+    @GetMapping("/photos/blobs/{sha256}")
+    public ResponseEntity<Map<String, Object>> storedContent(@PathVariable String sha256) {
+        boolean stored = photoService.hasStoredContent(sha256);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("sha256", sha256.toLowerCase());
+        response.put("stored", stored);
+        return ResponseEntity.status(stored ? HttpStatus.OK : HttpStatus.NOT_FOUND).body(response);
+    }
+
+    // UPLOAD BY HASH (after a successful pre-flight)
+    @PostMapping("/photos/upload/by-hash")
+    public ResponseEntity<Map<String, Object>> uploadByHash(@RequestParam String sha256,
+                                                            @RequestParam(required = false) String filename,
+                                                            @RequestParam(required = false) String description,
+                                                            @RequestParam(required = false) String hashtags) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            Photo photo = photoService.uploadByHash(sha256, filename, description, hashtags);
+            response.put("photoId", photo.getId());
+            response.put("statusUrl", "/photos/status/" + photo.getId());
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            response.put("error", e.getMessage());
+            HttpStatus status = switch (e.getMessage()) {
+                case "UNKNOWN_CONTENT" -> HttpStatus.NOT_FOUND;
+                case "FILE_TOO_LARGE" -> HttpStatus.PAYLOAD_TOO_LARGE;
+                case "UPLOAD_LIMIT" -> HttpStatus.TOO_MANY_REQUESTS;
+                default -> HttpStatus.BAD_REQUEST;
+            };
+            return ResponseEntity.status(status).body(response);
+        }
+    }
+
     // GALLERY & SEARCH
     @GetMapping("/photos")
     public String gallery(@RequestParam(defaultValue = "0") int page,
@@ -97,17 +201,20 @@ public class PhotoController {
                           @RequestParam(required = false) Long maxSize,
                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+                          @RequestParam(required = false) String color,
                           Model model,
                           Authentication authentication) {
 
         // Convert dates to LocalDateTime
         LocalDateTime start = startDate != null ? startDate.atStartOfDay() : null;
         LocalDateTime end = endDate != null ? endDate.atTime(LocalTime.MAX) : null;
+        // "#rrggbb" or "rrggbb"; anything else means no colour filter
+        Integer rgb = ColorSignature.parseHex(color);
 
         boolean hasFilters =
                 hashtag != null || author != null ||
                         minSize != null || maxSize != null ||
-                        start != null || end != null;
+                        start != null || end != null || rgb != null;
 
         if (!hasFilters && page == 0) {
             // show last 10 uploaded photos
@@ -117,7 +224,7 @@ public class PhotoController {
             model.addAttribute("sort", "date");
         } else {
             var photoPage = hasFilters
-                    ? photoService.searchPhotos(hashtag, author, minSize, maxSize, start, end, page, 12)
+                    ? photoService.searchPhotos(hashtag, author, minSize, maxSize, start, end, rgb, page, 12)
                     : photoService.findAllPagedSorted(page, 12, sort);
 
             model.addAttribute("photos", photoPage.getContent());
@@ -134,6 +241,7 @@ public class PhotoController {
         model.addAttribute("maxSize", maxSize);
         model.addAttribute("startDate", startDate);
         model.addAttribute("endDate", endDate);
+        model.addAttribute("color", rgb != null ? ColorSignature.toHex(rgb) : null);
 
         if (authentication != null && authentication.isAuthenticated()
                 && !authentication.getName().equals("anonymousUser")) {
@@ -146,6 +254,75 @@ public class PhotoController {
         return "photos";
     }
 
+    // PROCESSING STATUS (polled by clients after an upload)
+    @GetMapping("/photos/status/{id}")
+    @ResponseBody
+    public Map<String, Object> photoStatus(@PathVariable Long id) {
+        Photo photo = photoService.findById(id);
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", photo.getId());
+        status.put("status", photo.getStatus());
+        status.put("message", photo.getStatusMessage());
+        status.put("width", photo.getWidth());
+        status.put("height", photo.getHeight());
+        status.put("derivatives", new TreeSet<>(photo.getDerivatives().keySet()));
+        // the owner's near-identical photos, once the upload has been hashed
+        status.put("duplicates", photoService.findDuplicates(photo).stream()
+                .map(duplicate -> duplicate.getPhoto().getId())
+                .toList());
+        return status;
+    }
+
+    // SIMILAR PHOTOS (perceptual hash within a Hamming distance)
+    @GetMapping("/photos/similar/{id}")
+    @ResponseBody
+    public Map<String, Object> similarPhotos(@PathVariable Long id,
+                                             @RequestParam(required = false) Integer distance,
+                                             @RequestParam(defaultValue = "20") int limit) {
+        Photo photo = photoService.findById(id);
+
+        List<Map<String, Object>> similar = new ArrayList<>();
+        for (SimilarPhoto match : photoService.findSimilar(photo, distance, Math.max(1, Math.min(limit, 100)))) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", match.getPhoto().getId());
+            entry.put("distance", match.getDistance());
+            entry.put("owner", match.getPhoto().getOwner().getUsername());
+            entry.put("thumbnailUrl", "/photos/view/" + match.getPhoto().getId() + "?size=320");
+            similar.add(entry);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", photo.getId());
+        response.put("hashed", photo.getPerceptualHash() != null);
+        response.put("similar", similar);
+        return response;
+    }
+
+    // SIMILAR COLOURS (overlap of the colour histograms, 1 = identical distribution)
+    @GetMapping("/photos/similar-colors/{id}")
+    @ResponseBody
+    public Map<String, Object> similarColors(@PathVariable Long id,
+                                             @RequestParam(defaultValue = "20") int limit) {
+        Photo photo = photoService.findById(id);
+
+        List<Map<String, Object>> similar = new ArrayList<>();
+        for (ColorMatch match : photoService.findSimilarColors(photo, Math.max(1, Math.min(limit, 100)))) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", match.getPhoto().getId());
+            entry.put("score", Math.round(match.getScore() * 1000) / 1000.0);
+            entry.put("palette", match.getPhoto().getPalette());
+            entry.put("thumbnailUrl", "/photos/view/" + match.getPhoto().getId() + "?size=320");
+            similar.add(entry);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", photo.getId());
+        response.put("palette", photo.getPalette());
+        response.put("similar", similar);
+        return response;
+    }
+
     // EDIT
     @GetMapping("/photos/edit/{id}")
     public String showEditForm(@PathVariable Long id,
@@ -238,69 +415,343 @@ public class PhotoController {
         );
     }
 
-    // DOWNLOAD
+    // DOWNLOAD (encoded straight into the response, chunked when the length is not known up front)
     @GetMapping("/photos/download/{id}")
-    public ResponseEntity<byte[]> downloadPhoto(
+    public ResponseEntity<StreamingResponseBody> downloadPhoto(
             @PathVariable Long id,
             @RequestParam(defaultValue = "original") String format,
             @RequestParam(defaultValue = "false") boolean sepia,
+            @RequestParam(defaultValue = "false") boolean grayscale,
+            @RequestParam(required = false) Integer brightness,
+            @RequestParam(required = false) Integer contrast,
+            @RequestParam(required = false) Integer saturation,
+            @RequestParam(required = false) Double gamma,
+            @RequestParam(required = false) String mix,
             @RequestParam(defaultValue = "false") boolean blur,
+            @RequestParam(required = false) Integer blurRadius,
             @RequestParam(required = false) Integer width,
-            @RequestParam(required = false) Integer height
+            @RequestParam(required = false) Integer height,
+            @RequestParam(required = false) Integer quality,
+            @RequestParam(defaultValue = "false") boolean progressive,
+            @RequestParam(required = false) String region,
+            @RequestParam(required = false) String v,
+            ServletWebRequest webRequest
     ) throws IOException {
 
         Photo photo = photoService.findById(id);
 
-        byte[] imageBytes;
-        String filename;
-        String contentType;
+        int radius = blurRadius != null ? blurRadius : (blur ? ImageProcessor.DEFAULT_BLUR_RADIUS : 0);
+
+        PhotoTransform transform = PhotoTransform.builder()
+                .format("original".equalsIgnoreCase(format) ? null : format)
+                .width(width)
+                .height(height)
+                .sepia(sepia)
+                .colors(colorMatrix(grayscale, brightness, contrast, saturation, parseMix(mix)))
+                .gamma(gamma != null ? Math.max(0.1, Math.min(10, gamma)) : null)
+                .blurRadius(radius)
+                .quality(quality)
+                .progressive(progressive)
+                .region(parseRegion(region))
+                .build();
+
+        String etag = photoService.getETag(photo, null, transform);
+        if (notModified(webRequest, photo, etag, transform.isPassthrough(), v)) {
+            return null;
+        }
+        RenderedPhoto rendered = photoService.renderPhoto(photo, transform);
 
-        boolean hasFilters = sepia || blur || width != null || height != null;
+        String filename = transform.isPassthrough()
+                ? photo.getOriginalFilename()
+                : removeExtension(photo.getOriginalFilename()) + "."
+                        + ImageProcessor.normalizeFormat(transform.getFormat());
 
-        if ("original".equalsIgnoreCase(format) && !hasFilters) {
-            // original download
-            imageBytes = photoService.getPhotoBytes(photo);
-            filename = photo.getOriginalFilename();
-            contentType = photo.getContentType() != null
-                    ? photo.getContentType()
-                    : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        return streamed(webRequest, headers, rendered, etag, lastModified(photo));
+    }
 
-        } else {
-            // Filtered download
-            String outputFormat = "original".equalsIgnoreCase(format) ? "jpg" : format;
 
-            if (hasFilters) {
-                imageBytes = photoService.getPhotoWithFilters(
-                        photo, outputFormat, width, height, sepia, blur
-                );
-            } else {
-                imageBytes = photoService.getPhotoAsFormat(photo, outputFormat);
-            }
+    // VIEW IMAGE (size picks the nearest pre-generated derivative, quality/progressive re-encode it;
+    // region=x,y,w,h crops the original, decoding only that rectangle). The page is public, but only
+    // signed-in users may ask for a render: anonymous clients get the stored original or a derivative.
+    @GetMapping("/photos/view/{id}")
+    public ResponseEntity<StreamingResponseBody> viewPhoto(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) Integer quality,
+            @RequestParam(defaultValue = "false") boolean progressive,
+            @RequestParam(required = false) String region,
+            @RequestParam(required = false) Integer width,
+            @RequestParam(required = false) Integer height,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String v,
+            ServletWebRequest webRequest,
+            Authentication authentication) throws IOException {
+        Photo photo = photoService.findById(id);
 
-            filename = removeExtension(photo.getOriginalFilename()) + "." + outputFormat;
-            contentType = "image/" + outputFormat;
+        PhotoTransform transform = PhotoTransform.builder()
+                .format(format != null && !format.isBlank() ? format : null)
+                .width(width)
+                .height(height)
+                .quality(quality)
+                .progressive(progressive)
+                .region(parseRegion(region))
+                .build();
+        if (authentication == null && !transform.isPassthrough()) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED,
+                    "Sign in to resize, crop or convert photos");
         }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + filename + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, contentType)
-                .body(imageBytes);
+        String etag = photoService.getETag(photo, size, transform);
+        if (notModified(webRequest, photo, etag, size == null && transform.isPassthrough(), v)) {
+            return null;
+        }
+        return streamed(webRequest, new HttpHeaders(), photoService.renderView(photo, size, transform),
+                etag, lastModified(photo));
     }
 
-
-    // VIEW FULL IMAGE
-    @GetMapping("/photos/view/{id}")
-    public ResponseEntity<byte[]> viewPhoto(@PathVariable Long id) throws IOException {
+    // DEEP ZOOM (viewers fetch the descriptor, then only the tiles in view at the current zoom)
+    @GetMapping("/photos/zoom/{id}")
+    public String zoom(@PathVariable Long id, Model model) {
         Photo photo = photoService.findById(id);
-        byte[] imageBytes = photoService.getPhotoBytes(photo);
+        if (photo.getTilesPath() == null) {
+            return "redirect:/photos/view/" + id;
+        }
+        model.addAttribute("photo", photo);
+        return "zoom";
+    }
 
-        MediaType mediaType = MediaType.parseMediaType(
-                photo.getContentType() != null ? photo.getContentType() : "image/jpeg");
+    @GetMapping(value = "/photos/tiles/{id}.dzi", produces = MediaType.APPLICATION_XML_VALUE)
+    @ResponseBody
+    public String tileDescriptor(@PathVariable Long id) {
+        return photoService.getTileDescriptor(photoService.findById(id));
+    }
 
+    // tiles of a photo never change, so browsers may keep them
+    @GetMapping("/photos/tiles/{id}_files/{level}/{column}_{row}.jpg")
+    public ResponseEntity<byte[]> tile(@PathVariable Long id, @PathVariable int level,
+                                       @PathVariable int column, @PathVariable int row) throws IOException {
+        byte[] tile = photoService.getTile(photoService.findById(id), level, column, row);
         return ResponseEntity.ok()
-                .contentType(mediaType)
-                .body(imageBytes);
+                .contentType(MediaType.IMAGE_JPEG)
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic())
+                .body(tile);
+    }
+
+    // Conditional GET: sets the validators and caching policy, true when a 304 has been sent instead.
+    // An original is cached for a year only when the URL names its content (v=<content hash>): the
+    // optimizer may still replace the file behind a plain URL. Anything else is revalidated against its ETag
+    private boolean notModified(ServletWebRequest webRequest, Photo photo, String etag, boolean original,
+                                String version) {
+        boolean immutable = original && photo.getContentHash() != null && photo.getContentHash().equals(version);
+        CacheControl cacheControl = immutable
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable()
+                : CacheControl.noCache().cachePrivate();
+        webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        return webRequest.checkNotModified(etag, lastModified(photo));
+    }
+
+    private long lastModified(Photo photo) {
+        LocalDateTime changed = photo.getOptimizedAt() != null ? photo.getOptimizedAt() : photo.getUploadedAt();
+        return changed.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // 200 with the whole photo, or 206/416 for a Range request on content whose length is known
+    // (ETag and Last-Modified are already on the response from notModified)
+    private ResponseEntity<StreamingResponseBody> streamed(ServletWebRequest webRequest, HttpHeaders headers,
+                                                           RenderedPhoto rendered, String etag,
+                                                           long lastModified) {
+        HttpServletRequest request = webRequest.getRequest();
+        MediaType contentType = MediaType.parseMediaType(rendered.getContentType());
+
+        Long length = rendered.getContentLength();
+        if (length == null) {
+            headers.setContentType(contentType);
+            return ResponseEntity.ok().headers(headers).body(rendered::writeTo);
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<long[]> ranges = requestedRanges(webRequest, etag, lastModified, length);
+        if (ranges == null) {
+            headers.setContentType(contentType);
+            headers.setContentLength(length);
+            return sendFile(request, rendered, 0, length - 1)
+                    ? ResponseEntity.ok().headers(headers).build()
+                    : ResponseEntity.ok().headers(headers).body(rendered::writeTo);
+        }
+        if (ranges.isEmpty()) {
+            rendered.release();
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+        }
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0)[0];
+            long end = ranges.get(0)[1];
+            headers.setContentType(contentType);
+            headers.setContentLength(end - start + 1);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            if (sendFile(request, rendered, start, end)) {
+                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).build();
+            }
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(out -> {
+                try {
+                    rendered.writeRange(start, end, out);
+                } finally {
+                    rendered.release();
+                }
+            });
+        }
+
+        // multipart/byteranges, each part with its own Content-Range
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long total = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            total += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(total + closing.length);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(out -> {
+            try {
+                for (int i = 0; i < ranges.size(); i++) {
+                    out.write(partHeaders.get(i));
+                    rendered.writeRange(ranges.get(i)[0], ranges.get(i)[1], out);
+                }
+                out.write(closing);
+            } finally {
+                rendered.release();
+            }
+        });
+    }
+
+    // Ranges as inclusive [start, end] clipped to the length; null means send the whole photo (no or
+    // malformed Range, or an If-Range that no longer matches), empty means none of them can be satisfied
+    private List<long[]> requestedRanges(ServletWebRequest webRequest, String etag, long lastModified,
+                                         long length) {
+        String header = webRequest.getHeader(HttpHeaders.RANGE);
+        if (header == null || length == 0) {
+            return null;
+        }
+        String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag) && !ifRangeDateMatches(webRequest, lastModified)) {
+            return null;
+        }
+
+        List<HttpRange> parsed;
+        try {
+            parsed = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        long requested = 0;
+        for (HttpRange range : parsed) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start >= length || start > end) {
+                continue;  // starts past the end
+            }
+            ranges.add(new long[] {start, end});
+            requested += end - start + 1;
+        }
+        // more bytes than the whole file is what an amplification attack looks like
+        return requested > length ? null : ranges;
+    }
+
+    // If-Range with a date only holds when it is exactly the Last-Modified sent (to the second)
+    private boolean ifRangeDateMatches(ServletWebRequest webRequest, long lastModified) {
+        try {
+            return webRequest.getRequest().getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;  // an entity tag that didn't match
+        }
+    }
+
+    // Stored files are handed to the connector's sendfile, so their bytes never pass through the heap;
+    // false when the container can't (then the caller writes the bytes itself)
+    private boolean sendFile(HttpServletRequest request, RenderedPhoto rendered, long start, long end) {
+        if (rendered.getFile() == null || !"GET".equals(request.getMethod())
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, rendered.getFile().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end + 1);
+        rendered.release();
+        return true;
+    }
+
+    // Channel mix, then saturation (percent, 100 = unchanged) or grayscale, then brightness and contrast
+    // (percent, -100..100), combined into one matrix; null when nothing was asked for
+    private ColorMatrix colorMatrix(boolean grayscale, Integer brightness, Integer contrast,
+                                    Integer saturation, double[] mix) {
+        ColorMatrix matrix = mix != null ? ColorMatrix.channelMix(mix) : ColorMatrix.identity();
+        if (grayscale) {
+            matrix = matrix.then(ColorMatrix.grayscale());
+        } else if (saturation != null) {
+            matrix = matrix.then(ColorMatrix.saturation(Math.max(0, Math.min(300, saturation)) / 100.0));
+        }
+        if (brightness != null) {
+            matrix = matrix.then(ColorMatrix.brightness(Math.max(-100, Math.min(100, brightness))));
+        }
+        if (contrast != null) {
+            matrix = matrix.then(ColorMatrix.contrast(Math.max(-100, Math.min(100, contrast))));
+        }
+        return matrix.isIdentity() ? null : matrix;
+    }
+
+    // "rr,rg,rb,gr,gg,gb,br,bg,bb": each output channel as a weighted sum of the input channels
+    private double[] parseMix(String mix) {
+        if (mix == null || mix.isBlank()) {
+            return null;
+        }
+
+        String[] parts = mix.split(",");
+        try {
+            if (parts.length == 9) {
+                double[] coefficients = new double[9];
+                for (int i = 0; i < 9; i++) {
+                    coefficients[i] = Double.parseDouble(parts[i].trim());
+                }
+                if (Arrays.stream(coefficients).allMatch(c -> Math.abs(c) <= 4)) {
+                    return coefficients;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "mix must be 9 comma-separated numbers between -4 and 4");
+    }
+
+    // "x,y,w,h" in pixels of the upright original
+    private Rectangle parseRegion(String region) {
+        if (region == null || region.isBlank()) {
+            return null;
+        }
+
+        String[] parts = region.split(",");
+        try {
+            if (parts.length == 4) {
+                int x = Integer.parseInt(parts[0].trim());
+                int y = Integer.parseInt(parts[1].trim());
+                int w = Integer.parseInt(parts[2].trim());
+                int h = Integer.parseInt(parts[3].trim());
+                if (x >= 0 && y >= 0 && w > 0 && h > 0) {
+                    return new Rectangle(x, y, w, h);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "region must be x,y,w,h with a positive size");
     }
 
     private User getLoggedUser(Authentication authentication) {
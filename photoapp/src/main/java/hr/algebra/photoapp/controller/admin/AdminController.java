@@ -3,9 +3,21 @@ package hr.algebra.photoapp.controller.admin;
 import hr.algebra.photoapp.model.PackageType;
 import hr.algebra.photoapp.model.User;
 import hr.algebra.photoapp.service.PhotoService;
+import hr.algebra.photoapp.service.StorageMigrationService;
+import hr.algebra.photoapp.service.StorageOptimizationService;
+import hr.algebra.photoapp.service.UploadProcessingService;
 import hr.algebra.photoapp.service.UserActionService;
 import hr.algebra.photoapp.service.UserService;
+import hr.algebra.photoapp.service.image.BandedTranscoder;
+import hr.algebra.photoapp.service.image.ColorIndex;
+import hr.algebra.photoapp.service.image.DecodeMemoryBudget;
+import hr.algebra.photoapp.service.image.SimilarPhotoIndex;
+import hr.algebra.photoapp.service.image.TransformedPhotoCache;
+import hr.algebra.photoapp.service.storage.ContentAddressedStorageStrategy;
+import hr.algebra.photoapp.service.storage.S3PhotoStorageStrategy;
+import hr.algebra.photoapp.service.storage.SegmentStorageStrategy;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -24,6 +36,17 @@ public class AdminController {
     private final UserService userService;
     private final PhotoService photoService;
     private final UserActionService userActionService;
+    private final DecodeMemoryBudget decodeBudget;
+    private final BandedTranscoder bandedTranscoder;
+    private final TransformedPhotoCache transformCache;
+    private final UploadProcessingService uploadProcessingService;
+    private final SimilarPhotoIndex similarPhotoIndex;
+    private final ColorIndex colorIndex;
+    private final StorageOptimizationService storageOptimizationService;
+    private final StorageMigrationService storageMigrationService;
+    private final ObjectProvider<ContentAddressedStorageStrategy> contentAddressedStorage;
+    private final ObjectProvider<SegmentStorageStrategy> segmentStorage;
+    private final ObjectProvider<S3PhotoStorageStrategy> s3Storage;
 
     @GetMapping
     public String adminDashboard(Model model) {
@@ -73,6 +96,78 @@ public class AdminController {
         return "admin/actions";
     }
 
+    // current and peak decoded-pixel reservations
+    @GetMapping("/decode-budget")
+    @ResponseBody
+    public Map<String, Object> decodeBudget() {
+        return decodeBudget.getStatistics();
+    }
+
+    // streamed conversions and resizes of large photos
+    @GetMapping("/banded-transcoder")
+    @ResponseBody
+    public Map<String, Object> bandedTranscoder() {
+        return bandedTranscoder.getStatistics();
+    }
+
+    // hit rate and size of both transform cache tiers
+    @GetMapping("/transform-cache")
+    @ResponseBody
+    public Map<String, Object> transformCache() {
+        return transformCache.getStatistics();
+    }
+
+    // upload worker pool and pending jobs
+    @GetMapping("/upload-jobs")
+    @ResponseBody
+    public Map<String, Object> uploadJobs() {
+        return uploadProcessingService.getStatistics();
+    }
+
+    // blob sharing of the content-addressed storage, segment usage or object store transfers, when enabled
+    @GetMapping("/storage")
+    @ResponseBody
+    public Map<String, Object> storage() {
+        ContentAddressedStorageStrategy cas = contentAddressedStorage.getIfAvailable();
+        if (cas != null) {
+            return cas.getStatistics();
+        }
+        SegmentStorageStrategy segments = segmentStorage.getIfAvailable();
+        if (segments != null) {
+            return segments.getStatistics();
+        }
+        S3PhotoStorageStrategy s3 = s3Storage.getIfAvailable();
+        return s3 != null ? s3.getStatistics() : Map.of("strategy", "local");
+    }
+
+    // perceptual hash index size and query latency
+    @GetMapping("/similar-index")
+    @ResponseBody
+    public Map<String, Object> similarIndex() {
+        return similarPhotoIndex.getStatistics();
+    }
+
+    // originals re-encoded by the storage optimizer and the bytes saved per user
+    @GetMapping("/storage-optimizer")
+    @ResponseBody
+    public Map<String, Object> storageOptimizer() {
+        return storageOptimizationService.getStatistics();
+    }
+
+    // photos still in the flat layout and what the background move has done so far
+    @GetMapping("/storage-migration")
+    @ResponseBody
+    public Map<String, Object> storageMigration() {
+        return storageMigrationService.getStatistics();
+    }
+
+    // colour histogram index size and query latency
+    @GetMapping("/color-index")
+    @ResponseBody
+    public Map<String, Object> colorIndex() {
+        return colorIndex.getStatistics();
+    }
+
     @GetMapping("/statistics")
     public String systemStatistics(Model model) {
         // Add system-wide statistics here
@@ -0,0 +1,27 @@
+package hr.algebra.photoapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Value Object Pattern
+// Outcome of one file in a batch upload; error holds the same codes as single uploads
+@Getter
+@AllArgsConstructor
+public class BatchUploadResult {
+
+    private final String filename;
+    private final Long photoId;
+    private final String error;
+
+    public static BatchUploadResult accepted(String filename, Long photoId) {
+        return new BatchUploadResult(filename, photoId, null);
+    }
+
+    public static BatchUploadResult rejected(String filename, String error) {
+        return new BatchUploadResult(filename, null, error);
+    }
+
+    public boolean isAccepted() {
+        return error == null;
+    }
+}
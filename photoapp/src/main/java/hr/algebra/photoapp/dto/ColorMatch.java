@@ -0,0 +1,15 @@
+package hr.algebra.photoapp.dto;
+
+import hr.algebra.photoapp.model.Photo;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Value Object Pattern
+// A photo found through the colour index, with how much of its colour distribution overlaps the query (0..1)
+@Getter
+@AllArgsConstructor
+public class ColorMatch {
+
+    private final Photo photo;
+    private final double score;
+}
@@ -0,0 +1,66 @@
+package hr.algebra.photoapp.dto;
+
+import hr.algebra.photoapp.util.ColorMatrix;
+import hr.algebra.photoapp.util.ImageBlur;
+import hr.algebra.photoapp.util.ImageProcessor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.awt.Rectangle;
+
+// Value Object Pattern + Builder Pattern
+// Everything a download/view request asks to change about a stored photo
+@Getter
+@Builder(toBuilder = true)
+public class PhotoTransform {
+
+    private final String format;        // output format, null keeps the stored bytes when nothing else changes
+    private final Integer width;
+    private final Integer height;
+    private final boolean sepia;
+    private final ColorMatrix colors;   // grayscale, brightness, contrast, saturation and channel mix combined
+    private final Double gamma;         // 1 leaves the image as it is
+    private final int blurRadius;
+    private final Integer quality;      // JPEG quality 1-100, null uses the encoder default
+    private final boolean progressive;  // progressive JPEG
+    private final Rectangle region;     // crop in upright pixel coordinates of the original, applied before resizing
+
+    public boolean hasPixelChanges() {
+        return width != null || height != null || sepia || hasColorChanges() || blurRadius > 0 || region != null;
+    }
+
+    public boolean hasColorChanges() {
+        return (colors != null && !colors.isIdentity()) || (gamma != null && gamma != 1);
+    }
+
+    // only a format change and/or resize, which can be streamed without holding the whole image
+    public boolean isResizeOnly() {
+        return !sepia && !hasColorChanges() && blurRadius <= 0 && region == null;
+    }
+
+    public boolean hasEncodingOptions() {
+        return quality != null || progressive;
+    }
+
+    // nothing to do: the stored file can be sent as it is
+    public boolean isPassthrough() {
+        return format == null && !hasPixelChanges() && !hasEncodingOptions();
+    }
+
+    // Same output, same key: defaults are spelled out so equivalent requests share one entry
+    public String canonicalKey() {
+        String outputFormat = ImageProcessor.normalizeFormat(format);
+        boolean jpeg = outputFormat.equals("jpg");
+        return String.join("|",
+                outputFormat,
+                width != null && width > 0 ? width.toString() : "-",
+                height != null && height > 0 ? height.toString() : "-",
+                sepia ? "sepia" : "-",
+                colors != null && !colors.isIdentity() ? colors.toKey() : "-",
+                gamma != null && gamma != 1 ? gamma.toString() : "-",
+                blurRadius > 0 ? Integer.toString(Math.min(blurRadius, ImageBlur.MAX_RADIUS)) : "-",
+                jpeg && quality != null ? Integer.toString(Math.max(1, Math.min(100, quality))) : "-",
+                jpeg && progressive ? "progressive" : "-",
+                region != null ? region.x + "," + region.y + "," + region.width + "," + region.height : "-");
+    }
+}
@@ -0,0 +1,173 @@
+package hr.algebra.photoapp.dto;
+
+import hr.algebra.photoapp.service.storage.StoredContent;
+import hr.algebra.photoapp.util.ImageProcessor;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+// Value Object Pattern
+// A photo ready to be sent: stored bytes, an open stored file, or output that is encoded while streaming
+public class RenderedPhoto {
+
+    // writes the encoded photo into the response
+    @FunctionalInterface
+    public interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    private final byte[] bytes;
+    private final Encoder encoder;
+    private final StoredContent content;
+    private final String contentType;
+    private final Long contentLength;
+    private final Path file;
+    private AutoCloseable hold;
+    private Consumer<byte[]> capture;
+    private int captureLimit;
+
+    private RenderedPhoto(byte[] bytes, Encoder encoder, StoredContent content, String contentType,
+                          Long contentLength, Path file, AutoCloseable hold) {
+        this.bytes = bytes;
+        this.encoder = encoder;
+        this.content = content;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.file = file;
+        this.hold = hold;
+    }
+
+    public static RenderedPhoto stored(byte[] bytes, String contentType) {
+        return new RenderedPhoto(bytes, null, null, contentType, (long) bytes.length, null, null);
+    }
+
+    // An open stored file, transferred to the response while writing and closed afterwards (or on release)
+    public static RenderedPhoto stored(StoredContent content, String contentType) {
+        return new RenderedPhoto(null, out -> content.transferTo(Channels.newChannel(out)), content,
+                contentType, content.getLength(), content.getFile(), content);
+    }
+
+    // hold (e.g. a decode memory reservation) is released once the image has been written
+    public static RenderedPhoto encoded(BufferedImage image, String format, Integer quality,
+                                        boolean progressive, AutoCloseable hold) {
+        String outputFormat = ImageProcessor.normalizeFormat(format);
+        return new RenderedPhoto(null,
+                out -> ImageProcessor.writeImage(image, outputFormat, quality, progressive, out), null,
+                ImageProcessor.mimeType(outputFormat), null, null, hold);
+    }
+
+    // Output produced by encoder while writing, e.g. a banded transcode that never holds the whole image
+    public static RenderedPhoto streamed(Encoder encoder, String format, AutoCloseable hold) {
+        return new RenderedPhoto(null, encoder, null, ImageProcessor.mimeType(ImageProcessor.normalizeFormat(format)),
+                null, null, hold);
+    }
+
+    // Hands a copy of the written bytes to sink after a complete write, unless they exceed limitBytes
+    public RenderedPhoto capture(Consumer<byte[]> sink, int limitBytes) {
+        this.capture = sink;
+        this.captureLimit = limitBytes;
+        return this;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    // known only for stored content; encoded output is sent chunked
+    public Long getContentLength() {
+        return contentLength;
+    }
+
+    // local file holding exactly the response body, which the container may send without reading it
+    public Path getFile() {
+        return file;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            if (bytes != null) {
+                out.write(bytes);
+                if (capture != null && bytes.length <= captureLimit) {
+                    capture.accept(bytes);
+                }
+            } else if (capture != null) {
+                CopyingOutputStream copying = new CopyingOutputStream(out, captureLimit);
+                encoder.encode(copying);
+                if (copying.copy != null) {
+                    capture.accept(copying.copy.toByteArray());
+                }
+            } else {
+                encoder.encode(out);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    // Bytes start..end (inclusive) of stored content, for range requests; the caller releases afterwards
+    public void writeRange(long start, long end, OutputStream out) throws IOException {
+        if (bytes != null) {
+            out.write(bytes, (int) start, (int) (end - start + 1));
+        } else if (content != null) {
+            content.transferTo(start, end - start + 1, Channels.newChannel(out));
+        } else {
+            throw new IllegalStateException("Encoded output has no byte ranges");
+        }
+    }
+
+    // safe to call more than once, also for responses that are never written
+    public synchronized void release() {
+        if (hold == null) {
+            return;
+        }
+        try {
+            hold.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to release rendered photo", e);
+        } finally {
+            hold = null;
+        }
+    }
+
+    // Tee that keeps a copy until it grows past the limit, then just passes bytes through
+    private static final class CopyingOutputStream extends FilterOutputStream {
+
+        private final int limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private CopyingOutputStream(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkLimit();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkLimit();
+            }
+        }
+
+        private void checkLimit() {
+            if (copy.size() > limit) {
+                copy = null;
+            }
+        }
+    }
+}
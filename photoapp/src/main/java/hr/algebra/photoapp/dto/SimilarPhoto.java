@@ -0,0 +1,15 @@
+package hr.algebra.photoapp.dto;
+
+import hr.algebra.photoapp.model.Photo;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Value Object Pattern
+// A photo found through the similarity index, with the Hamming distance between the two hashes
+@Getter
+@AllArgsConstructor
+public class SimilarPhoto {
+
+    private final Photo photo;
+    private final int distance;
+}
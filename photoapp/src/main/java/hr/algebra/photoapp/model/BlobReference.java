@@ -0,0 +1,23 @@
+package hr.algebra.photoapp.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// Entity Pattern (Domain Model)
+// Maps a storage path (e.g. /uploads/ana/beach.jpg) to the blob holding its bytes
+@Entity
+@Table(name = "blob_references")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BlobReference {
+
+    @Id
+    @Column(length = 500)
+    private String path;
+
+    @Column(nullable = false, length = 64)
+    private String sha256;
+}
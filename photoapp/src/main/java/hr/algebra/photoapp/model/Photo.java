@@ -3,13 +3,15 @@ package hr.algebra.photoapp.model;
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 // Entity Pattern (Domain Model)
 // Represents a photo with metadata and relationships
 @Entity
-@Table(name = "photos")
+@Table(name = "photos", indexes = @Index(name = "idx_photos_content_hash", columnList = "contentHash"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -51,15 +53,82 @@ public class Photo {
     private Integer width;
     private Integer height;
 
+    // EXIF orientation of the stored original (1 = upright), derivatives are already upright
+    private Integer orientation;
+
+    // Processing state of the upload; rows from before asynchronous processing have none
+    @Enumerated(EnumType.STRING)
+    private PhotoStatus status;
+
+    @Column(length = 500)
+    private String statusMessage;
+
+    // dHash of the upright image, null until processed
+    private Long perceptualHash;
+
+    // Share of pixels in each of the 64 colour bins (1/255ths), see ColorSignature; null until processed
+    @Column(length = 64)
+    private byte[] colorHistogram;
+
+    // Dominant colours, largest first ("#rrggbb,#rrggbb,...")
+    @Column(length = 64)
+    private String palette;
+
+    // Deep-zoom tile prefix (<prefix>/<level>/<column>_<row>.jpg), null when the photo has no pyramid
+    @Column(length = 500)
+    private String tilesPath;
+
+    // SHA-256 of the stored file, hex
+    @Column(length = 64)
+    private String contentHash;
+
+    // When the storage optimizer looked at the original, null until then
+    private LocalDateTime optimizedAt;
+
+    // Bytes the optimizer's re-encode saved over the previous original, 0 when it was kept
+    private Long bytesSaved;
+
+    // Original the optimizer's re-encode replaced, stored until keep-originals-days pass; null otherwise
+    @Column(length = 500)
+    private String replacedOriginal;
+
+    // Downscaled copies generated on upload (long edge in px -> stored path)
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "photo_derivatives", joinColumns = @JoinColumn(name = "photo_id"))
+    @MapKeyColumn(name = "max_edge")
+    @Column(name = "path")
+    @Builder.Default
+    private Map<Integer, String> derivatives = new HashMap<>();
+
     // Helper methods
     public int getLikes() {
         return likedBy != null ? likedBy.size() : 0;
     }
     
+    public PhotoStatus getStatus() {
+        return status != null ? status : PhotoStatus.READY;
+    }
+
+    public boolean isReady() {
+        return getStatus() == PhotoStatus.READY;
+    }
+
     public String getAuthorName() {
         return owner != null ? owner.getUsername() : "Anonymous";
     }
     
+    // Smallest derivative that still covers the requested size, null means use the original
+    public String getDerivativePath(int size) {
+        if (derivatives == null) {
+            return null;
+        }
+        return derivatives.entrySet().stream()
+                .filter(e -> e.getKey() >= size)
+                .min(Map.Entry.comparingByKey())
+                .map(Map.Entry::getValue)
+                .orElse(null);
+    }
+
     public String getSizeInMB() {
         return String.format("%.2f MB", size / (1024.0 * 1024.0));
     }
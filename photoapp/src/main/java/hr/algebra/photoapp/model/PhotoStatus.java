@@ -0,0 +1,9 @@
+package hr.algebra.photoapp.model;
+
+// Lifecycle of an upload: accepted as PENDING, picked up by a worker, then READY or FAILED
+public enum PhotoStatus {
+    PENDING,
+    PROCESSING,
+    READY,
+    FAILED
+}
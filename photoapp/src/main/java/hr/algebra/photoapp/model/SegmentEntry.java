@@ -0,0 +1,29 @@
+package hr.algebra.photoapp.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// Entity Pattern (Domain Model)
+// Where a storage path's bytes sit in the segment storage: segment file, offset and length.
+// Copies of a file share one region, so several paths may point at the same bytes.
+@Entity
+@Table(name = "segment_entries", indexes = @Index(name = "idx_segment_entries_segment", columnList = "segment"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SegmentEntry {
+
+    @Id
+    @Column(length = 500)
+    private String path;
+
+    // number of the segment file (segments/00000042.seg)
+    private int segment;
+
+    // offset of the first byte within the segment
+    private long position;
+
+    private long size;
+}
@@ -0,0 +1,30 @@
+package hr.algebra.photoapp.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Entity Pattern (Domain Model)
+// One stored file of the content-addressed storage, shared by every path with the same bytes
+@Entity
+@Table(name = "stored_blobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StoredBlob {
+
+    // SHA-256 of the content, hex
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    private long size;
+
+    // number of paths referring to this blob; the file is deleted when it drops to 0
+    private int refCount;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,37 @@
+package hr.algebra.photoapp.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.time.LocalDateTime;
+
+// Entity Pattern (Domain Model) + Command Pattern (persisted work item)
+// Processing requested for an accepted upload; survives restarts until a worker finishes it
+@Entity
+@Table(name = "upload_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true)
+    private Long photoId;
+
+    // conversion asked for on upload, all null means derivatives only
+    private String format;
+    private Integer resizeWidth;
+    private Integer resizeHeight;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private int attempts;
+
+    // set after a failure worth retrying; the sweep leaves the job alone until then
+    private LocalDateTime nextAttemptAt;
+}
@@ -0,0 +1,11 @@
+package hr.algebra.photoapp.repository;
+
+import hr.algebra.photoapp.model.BlobReference;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+// Repository Pattern
+// Storage paths of the content-addressed storage
+@Repository
+public interface BlobReferenceRepository extends JpaRepository<BlobReference, String> {
+}
@@ -1,6 +1,7 @@
 package hr.algebra.photoapp.repository;
 
 import hr.algebra.photoapp.model.Photo;
+import hr.algebra.photoapp.model.PhotoStatus;
 import hr.algebra.photoapp.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -11,7 +12,9 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 // Repository Pattern + Proxy Pattern
 // Abstracts data access for Photo entities with advanced search capabilities
@@ -40,6 +43,24 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
             Pageable pageable
     );
     
+    // the ids among candidates that pass the other search filters, for colour search
+    @Query("SELECT p.id FROM Photo p WHERE p.id IN :ids AND " +
+           "(:hashtag IS NULL OR LOWER(p.hashtags) LIKE LOWER(CONCAT('%', :hashtag, '%'))) AND " +
+           "(:author IS NULL OR LOWER(p.owner.username) LIKE LOWER(CONCAT('%', :author, '%'))) AND " +
+           "(:minSize IS NULL OR p.size >= :minSize) AND " +
+           "(:maxSize IS NULL OR p.size <= :maxSize) AND " +
+           "(:startDate IS NULL OR p.uploadedAt >= :startDate) AND " +
+           "(:endDate IS NULL OR p.uploadedAt <= :endDate)")
+    List<Long> filterIds(
+            @Param("ids") Collection<Long> ids,
+            @Param("hashtag") String hashtag,
+            @Param("author") String author,
+            @Param("minSize") Long minSize,
+            @Param("maxSize") Long maxSize,
+            @Param("startDate") LocalDateTime startDate,
+            @Param("endDate") LocalDateTime endDate
+    );
+
     List<Photo> findTop10ByOrderByUploadedAtDesc();
     
     long countByOwner(User owner);
@@ -49,6 +70,51 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
 
     void deleteAllByOwner(User owner);
 
+    Optional<Photo> findFirstByOwnerAndContentHashAndStatus(User owner, String contentHash, PhotoStatus status);
+
+    // id, owner id and hash of every hashed photo, for the similarity index
+    @Query("SELECT p.id, p.owner.id, p.perceptualHash FROM Photo p WHERE p.perceptualHash IS NOT NULL")
+    List<Object[]> findPerceptualHashes();
+
+    // id and colour histogram of every processed photo, for the colour index
+    @Query("SELECT p.id, p.colorHistogram FROM Photo p WHERE p.colorHistogram IS NOT NULL")
+    List<Object[]> findColorHistograms();
+
+    // processed photos from before hashing or colour signatures, oldest first
+    @Query("SELECT p.id FROM Photo p WHERE (p.perceptualHash IS NULL OR p.colorHistogram IS NULL) AND p.id > :afterId " +
+           "AND (p.status IS NULL OR p.status = hr.algebra.photoapp.model.PhotoStatus.READY) ORDER BY p.id")
+    List<Long> findUnhashedIds(@Param("afterId") long afterId, Pageable pageable);
+
+    // processed photos the storage optimizer has not looked at yet, oldest first
+    @Query("SELECT p.id FROM Photo p WHERE p.optimizedAt IS NULL AND p.id > :afterId " +
+           "AND (p.status IS NULL OR p.status = hr.algebra.photoapp.model.PhotoStatus.READY) ORDER BY p.id")
+    List<Long> findUnoptimizedIds(@Param("afterId") long afterId, Pageable pageable);
+
+    long countByOptimizedAtIsNotNull();
+
+    // photos whose re-encode replaced the original before the given time, while the original is still stored
+    @Query("SELECT p.id FROM Photo p WHERE p.replacedOriginal IS NOT NULL AND p.optimizedAt < :before ORDER BY p.id")
+    List<Long> findReplacedOriginalIds(@Param("before") LocalDateTime before, Pageable pageable);
+
+    // bytes the optimizer saved that are only freed once the replaced originals are deleted
+    @Query("SELECT COALESCE(SUM(p.bytesSaved), 0) FROM Photo p WHERE p.replacedOriginal IS NOT NULL")
+    long sumBytesPendingDeletion();
+
+    // photos whose original is not in the sharded layout (uploads/<user>/<ab>/<cd>/...) yet, oldest first;
+    // uploads still waiting for or being processed are left to their worker
+    @Query("SELECT p.id FROM Photo p WHERE p.filename NOT LIKE '/uploads/%/__/__/%' AND p.id > :afterId " +
+           "AND (p.status IS NULL OR p.status = hr.algebra.photoapp.model.PhotoStatus.READY " +
+           "OR p.status = hr.algebra.photoapp.model.PhotoStatus.FAILED) ORDER BY p.id")
+    List<Long> findUnshardedIds(@Param("afterId") long afterId, Pageable pageable);
+
+    @Query("SELECT COUNT(p) FROM Photo p WHERE p.filename NOT LIKE '/uploads/%/__/__/%'")
+    long countUnsharded();
+
+    // username, optimized photos and bytes saved, biggest savings first
+    @Query("SELECT p.owner.username, COUNT(p), SUM(p.bytesSaved) FROM Photo p WHERE p.bytesSaved > 0 " +
+           "GROUP BY p.owner.username ORDER BY SUM(p.bytesSaved) DESC")
+    List<Object[]> sumBytesSavedByOwner();
+
     @Modifying
     @Query(value = "DELETE FROM photo_likes WHERE user_id = :userId", nativeQuery = true)
     void deleteLikesByUserId(@Param("userId") Long userId);
@@ -0,0 +1,30 @@
+package hr.algebra.photoapp.repository;
+
+import hr.algebra.photoapp.model.SegmentEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Repository Pattern
+// Offset/length index of the segment storage
+@Repository
+public interface SegmentEntryRepository extends JpaRepository<SegmentEntry, String> {
+
+    // position and size of each region still referred to, shared regions once
+    @Query("SELECT DISTINCT e.position, e.size FROM SegmentEntry e WHERE e.segment = :segment")
+    List<Object[]> findRegions(@Param("segment") int segment);
+
+    @Query("SELECT COALESCE(SUM(e.size), 0) FROM SegmentEntry e")
+    long sumSize();
+
+    // points every path sharing the region at its new location
+    @Modifying
+    @Query("UPDATE SegmentEntry e SET e.segment = :toSegment, e.position = :toPosition " +
+           "WHERE e.segment = :fromSegment AND e.position = :fromPosition")
+    int moveRegion(@Param("fromSegment") int fromSegment, @Param("fromPosition") long fromPosition,
+                   @Param("toSegment") int toSegment, @Param("toPosition") long toPosition);
+}
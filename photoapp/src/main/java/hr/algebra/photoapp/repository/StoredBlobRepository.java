@@ -0,0 +1,19 @@
+package hr.algebra.photoapp.repository;
+
+import hr.algebra.photoapp.model.StoredBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+// Repository Pattern
+// Blobs of the content-addressed storage
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    @Query("SELECT COALESCE(SUM(b.size), 0) FROM StoredBlob b")
+    long sumSize();
+
+    // bytes the paths would take without sharing
+    @Query("SELECT COALESCE(SUM(b.size * b.refCount), 0) FROM StoredBlob b")
+    long sumReferencedSize();
+}
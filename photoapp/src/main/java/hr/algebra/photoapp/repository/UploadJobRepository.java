@@ -0,0 +1,26 @@
+package hr.algebra.photoapp.repository;
+
+import hr.algebra.photoapp.model.UploadJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+// Repository Pattern
+// Pending upload processing jobs
+@Repository
+public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
+
+    Optional<UploadJob> findByPhotoId(Long photoId);
+
+    // jobs not waiting out a retry backoff
+    @Query("SELECT j FROM UploadJob j WHERE j.nextAttemptAt IS NULL OR j.nextAttemptAt <= :now " +
+            "ORDER BY j.createdAt ASC")
+    List<UploadJob> findDue(@Param("now") LocalDateTime now);
+
+    void deleteByPhotoId(Long photoId);
+}
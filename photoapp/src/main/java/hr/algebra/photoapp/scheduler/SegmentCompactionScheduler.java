@@ -0,0 +1,31 @@
+package hr.algebra.photoapp.scheduler;
+
+import hr.algebra.photoapp.service.storage.SegmentStorageStrategy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Scheduled Task Pattern
+// Reclaims the space deleted and replaced photos leave in storage segments, when segment storage is enabled
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SegmentCompactionScheduler {
+
+    private final ObjectProvider<SegmentStorageStrategy> segmentStorage;
+
+    @Scheduled(initialDelayString = "${photoapp.storage.segment.compact-interval-ms:300000}",
+            fixedDelayString = "${photoapp.storage.segment.compact-interval-ms:300000}")
+    public void compactSegments() {
+        SegmentStorageStrategy segments = segmentStorage.getIfAvailable();
+        if (segments == null) {
+            return;
+        }
+        long freed = segments.compact();
+        if (freed > 0) {
+            log.info("Deleted compacted storage segments, {} bytes freed", freed);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package hr.algebra.photoapp.scheduler;
+
+import hr.algebra.photoapp.service.StorageMigrationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Scheduled Task Pattern
+// Moves flat-layout photos into the sharded layout in batches while the app keeps serving them
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StorageMigrationScheduler {
+
+    private final StorageMigrationService storageMigrationService;
+
+    @Value("${photoapp.storage.migrate.batch-size:50}")
+    private int batchSize;
+
+    @Scheduled(initialDelayString = "${photoapp.storage.migrate.initial-delay-ms:30000}",
+            fixedDelayString = "${photoapp.storage.migrate.interval-ms:10000}")
+    public void migrateStoredPhotos() {
+        int moved = storageMigrationService.migrateBatch(batchSize);
+        if (moved > 0) {
+            log.info("Moved {} photos into the sharded storage layout", moved);
+        }
+    }
+}
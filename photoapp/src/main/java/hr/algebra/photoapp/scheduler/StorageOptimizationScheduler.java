@@ -0,0 +1,40 @@
+package hr.algebra.photoapp.scheduler;
+
+import hr.algebra.photoapp.service.StorageOptimizationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Scheduled Task Pattern
+// Works through photos stored before the optimizer existed (or before it was enabled), and photos deferred
+// while the decode budget was busy, a few at a time
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StorageOptimizationScheduler {
+
+    private static final int PURGE_BATCH_SIZE = 100;
+
+    private final StorageOptimizationService storageOptimizationService;
+
+    // re-encoding is slow, so small batches leave the worker pool to new uploads
+    @Value("${photoapp.optimize.batch-size:2}")
+    private int batchSize;
+
+    @Scheduled(initialDelayString = "${photoapp.optimize.initial-delay-ms:60000}",
+            fixedDelayString = "${photoapp.optimize.interval-ms:60000}")
+    public void optimizeStoredPhotos() {
+        int queued = storageOptimizationService.optimizeUnoptimized(batchSize);
+        if (queued > 0) {
+            log.info("Queued {} photos for storage optimization", queued);
+        }
+
+        // deletes are cheap next to re-encodes, so these go in larger batches
+        int purged = storageOptimizationService.purgeReplacedOriginals(PURGE_BATCH_SIZE);
+        if (purged > 0) {
+            log.info("Deleted {} originals replaced by optimized copies", purged);
+        }
+    }
+}
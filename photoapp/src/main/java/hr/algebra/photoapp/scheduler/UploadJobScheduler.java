@@ -0,0 +1,34 @@
+package hr.algebra.photoapp.scheduler;
+
+import hr.algebra.photoapp.service.UploadProcessingService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Scheduled Task Pattern
+// Requeues upload jobs left over from a restart or dropped because the worker queue was full,
+// and hashes photos processed before perceptual hashing and colour signatures existed
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class UploadJobScheduler {
+
+    private final UploadProcessingService uploadProcessingService;
+
+    // first run shortly after startup picks up whatever the last shutdown left behind
+    @Scheduled(initialDelayString = "${photoapp.upload.sweep-initial-delay-ms:5000}",
+            fixedDelayString = "${photoapp.upload.sweep-interval-ms:30000}")
+    public void requeueUnfinishedUploads() {
+        int queued = uploadProcessingService.requeueUnfinished();
+        if (queued > 0) {
+            log.info("Requeued {} unfinished upload jobs", queued);
+        }
+
+        // a few at a time so the backfill never crowds out new uploads
+        int hashing = uploadProcessingService.hashUnindexed(20);
+        if (hashing > 0) {
+            log.info("Queued {} photos for perceptual hashing and colour signatures", hashing);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package hr.algebra.photoapp.service;
 
+import hr.algebra.photoapp.dto.BatchUploadResult;
+import hr.algebra.photoapp.dto.ColorMatch;
+import hr.algebra.photoapp.dto.PhotoTransform;
+import hr.algebra.photoapp.dto.RenderedPhoto;
+import hr.algebra.photoapp.dto.SimilarPhoto;
 import hr.algebra.photoapp.model.Photo;
 import org.springframework.data.domain.Page;
 import org.springframework.security.core.Authentication;
@@ -18,14 +23,24 @@ public interface PhotoService {
     
     Photo upload(MultipartFile file, String description, String hashtags, String format, Integer resizeWidth, Integer resizeHeight) throws IOException;
 
+    List<BatchUploadResult> uploadBatch(List<MultipartFile> files, String description, String hashtags,
+                                        String format, Integer resizeWidth, Integer resizeHeight);
+
+    // a new photo sharing the bytes of content the caller already stored, so the client does not send them again
+    Photo uploadByHash(String sha256, String originalFilename, String description, String hashtags);
+
+    // true when the caller has content with this SHA-256 stored and processed
+    boolean hasStoredContent(String sha256);
+
     Photo findById(Long id);
 
     List<Photo> findAll();
 
     Page<Photo> findAllPagedSorted(int page, int size, String sort);
     
-    Page<Photo> searchPhotos(String hashtag, String author, Long minSize, Long maxSize, 
-                             LocalDateTime startDate, LocalDateTime endDate, int page, int size);
+    // color ("#rrggbb") ranks the results by how much of each photo is close to it; null keeps newest first
+    Page<Photo> searchPhotos(String hashtag, String author, Long minSize, Long maxSize,
+                             LocalDateTime startDate, LocalDateTime endDate, Integer color, int page, int size);
 
     List<Photo> findMine();
 
@@ -37,12 +52,26 @@ public interface PhotoService {
 
     boolean toggleLike(Long id);
 
-    byte[] getPhotoAsFormat(Photo photo, String format) throws IOException;
-    
-    byte[] getPhotoWithFilters(Photo photo, String format, Integer width, Integer height, 
-                               boolean sepia, boolean blur) throws IOException;
-    
-    byte[] getPhotoBytes(Photo photo) throws IOException;
+    RenderedPhoto renderPhoto(Photo photo, PhotoTransform transform) throws IOException;
+
+    RenderedPhoto renderView(Photo photo, Integer size, PhotoTransform transform) throws IOException;
+
+    // Strong ETag of what renderView would send, worked out from the stored content without reading it
+    String getETag(Photo photo, Integer size, PhotoTransform transform);
     
+    // Deep Zoom descriptor (.dzi) of the photo's tile pyramid
+    String getTileDescriptor(Photo photo);
+
+    byte[] getTile(Photo photo, int level, int column, int row) throws IOException;
+
     List<Photo> getLatestPhotos(int limit);
+
+    // closest first, the photo itself excluded; maxDistance null uses the configured default
+    List<SimilarPhoto> findSimilar(Photo photo, Integer maxDistance, int limit);
+
+    // the owner's other photos that are near-identical to this one
+    List<SimilarPhoto> findDuplicates(Photo photo);
+
+    // photos with the most similar colour distribution, best first, the photo itself excluded
+    List<ColorMatch> findSimilarColors(Photo photo, int limit);
 }
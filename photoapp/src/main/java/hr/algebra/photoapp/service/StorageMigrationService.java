@@ -0,0 +1,14 @@
+package hr.algebra.photoapp.service;
+
+import java.util.Map;
+
+// Service Layer Pattern
+// Moves photos stored before the sharded layout (flat uploads/<user>/ directories) into it
+public interface StorageMigrationService {
+
+    // moves up to limit photos with their derivatives and tiles, returns how many were moved
+    int migrateBatch(int limit);
+
+    // photos left to move and totals since startup
+    Map<String, Object> getStatistics();
+}
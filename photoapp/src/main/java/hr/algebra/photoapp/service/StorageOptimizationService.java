@@ -0,0 +1,21 @@
+package hr.algebra.photoapp.service;
+
+import java.util.Map;
+
+// Service Layer Pattern
+// Background re-encoding of stored originals into smaller files that look the same
+public interface StorageOptimizationService {
+
+    // queues a freshly processed upload when optimizing at upload is enabled
+    void submitUpload(Long photoId);
+
+    // queues up to limit photos: first those a busy decode budget deferred, then (with backfill) processed
+    // photos the optimizer has not looked at; returns how many were queued
+    int optimizeUnoptimized(int limit);
+
+    // deletes up to limit originals replaced more than keep-originals-days ago, returns how many were deleted
+    int purgeReplacedOriginals(int limit);
+
+    // totals since startup plus the bytes saved per user
+    Map<String, Object> getStatistics();
+}
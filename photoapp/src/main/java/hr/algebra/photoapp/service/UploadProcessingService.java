@@ -0,0 +1,21 @@
+package hr.algebra.photoapp.service;
+
+import java.util.Map;
+
+// Service Layer Pattern
+// Background processing of accepted uploads (conversion, derivatives)
+public interface UploadProcessingService {
+
+    // queues the photo once the surrounding transaction has committed
+    void submitAfterCommit(Long photoId);
+
+    void submit(Long photoId);
+
+    // queues every job that is not finished and not already queued, returns how many were queued
+    int requeueUnfinished();
+
+    // queues perceptual hashing and colour signatures for up to limit processed photos that lack them
+    int hashUnindexed(int limit);
+
+    Map<String, Object> getStatistics();
+}
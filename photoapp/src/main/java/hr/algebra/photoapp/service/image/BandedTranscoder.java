@@ -0,0 +1,464 @@
+package hr.algebra.photoapp.service.image;
+
+import hr.algebra.photoapp.util.ImageInfo;
+import hr.algebra.photoapp.util.ImageProcessor;
+import hr.algebra.photoapp.util.ImageResampler;
+import hr.algebra.photoapp.util.PixelKernels;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pipeline Pattern (producer/consumer) + Thread Pool Pattern
+// Converts and resizes large PNG/JPEG photos without decoding them into one raster. A decoder thread
+// reads into a one-row destination and hands rows over through a bounded queue (the band); the writer
+// pulls rows through the resampler as it encodes, so memory follows the width instead of the area.
+@Component
+@Slf4j
+public class BandedTranscoder {
+
+    // handed over after the last row, or when decoding stops early
+    private static final int[] END = new int[0];
+
+    private static final int[] RGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff};
+    private static final int[] ARGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000};
+
+    private final boolean enabled;
+    private final int bandRows;
+    private final long minPixels;
+    private final ExecutorService decoders;
+
+    private final AtomicLong transcodes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public BandedTranscoder(@Value("${photoapp.transcode.banded-enabled:true}") boolean enabled,
+                            @Value("${photoapp.transcode.band-rows:16}") int bandRows,
+                            @Value("${photoapp.transcode.banded-min-pixels:4000000}") long minPixels) {
+        this.enabled = enabled;
+        this.bandRows = Math.max(1, bandRows);
+        this.minPixels = minPixels;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // one decoder per running transcode; the decode memory budget is what limits how many run
+        this.decoders = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "band-decoder-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Null unless the photo can be streamed: stored upright, large enough to be worth it, a non-interlaced
+    // 8-bit RGB/RGBA PNG or a three-channel JPEG, written as baseline JPEG or PNG
+    public Plan plan(byte[] sourceBytes, ImageInfo info, Integer targetWidth, Integer targetHeight,
+                     int orientation, String format, boolean progressive) throws IOException {
+        String outputFormat = ImageProcessor.normalizeFormat(format);
+        boolean jpegOutput = outputFormat.equals("jpg");
+        if (!enabled || orientation != ImageInfo.ORIENTATION_NORMAL || (jpegOutput && progressive)
+                || outputFormat.equals("bmp")) {
+            return null;
+        }
+        long pixels = (long) info.getWidth() * info.getHeight();
+        if (pixels < minPixels || pixels > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        Boolean alpha = streamableLayout(sourceBytes);
+        if (alpha == null) {
+            return null;
+        }
+
+        int factor = ImageProcessor.subsamplingFactor(info.getWidth(), info.getHeight(), targetWidth, targetHeight);
+        int width = (info.getWidth() + factor - 1) / factor;
+        int height = (info.getHeight() + factor - 1) / factor;
+
+        // same rules as ImagePipeline: a missing side keeps the aspect ratio of the decoded size
+        int tw = targetWidth != null && targetWidth > 0 ? targetWidth : 0;
+        int th = targetHeight != null && targetHeight > 0 ? targetHeight : 0;
+        if (tw <= 0 && th <= 0) {
+            tw = width;
+            th = height;
+        } else if (tw <= 0) {
+            tw = Math.max(1, (int) (width * ((double) th / height)));
+        } else if (th <= 0) {
+            th = Math.max(1, (int) (height * ((double) tw / width)));
+        }
+        return new Plan(factor, width, height, tw, th, alpha, alpha && jpegOutput, outputFormat, sourceBytes.length);
+    }
+
+    // Decodes, resizes and encodes plan into out; the caller reserves estimateBytes(plan) beforehand
+    public void transcode(byte[] sourceBytes, Plan plan, Integer quality, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        Decoder decoder = new Decoder(sourceBytes, plan, bandRows);
+        Future<?> decoding = decoders.submit(decoder);
+        active.incrementAndGet();
+        try {
+            ImageResampler.RowSource rows = decoder;
+            boolean resize = plan.targetWidth != plan.width || plan.targetHeight != plan.height;
+            // per-pixel work on whichever side of the resize has fewer pixels, as in ImagePipeline
+            boolean resizeFirst = (long) plan.targetWidth * plan.targetHeight <= (long) plan.width * plan.height;
+            if (plan.flatten && !resizeFirst) {
+                rows = flattened(rows);
+            }
+            if (resize) {
+                rows = ImageResampler.lanczos3Rows(rows, plan.width, plan.height, plan.targetWidth, plan.targetHeight);
+            }
+            if (plan.flatten && resizeFirst) {
+                rows = flattened(rows);
+            }
+
+            BufferedImage output = pullImage(rows, plan.targetWidth, plan.targetHeight, plan.alpha && !plan.flatten);
+            try {
+                ImageProcessor.writeDirect(output, plan.outputFormat, quality, false, out);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            transcodes.incrementAndGet();
+            log.debug("Banded transcode {}x{} -> {}x{} {} in {} ms", plan.width, plan.height,
+                    plan.targetWidth, plan.targetHeight, plan.outputFormat, (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            // also stops a decoder whose last rows were never needed
+            decoding.cancel(true);
+            active.decrementAndGet();
+        }
+    }
+
+    // memory one transcode of plan holds, to reserve from the decode budget: its rows and the source it reads
+    public long estimateBytes(Plan plan) {
+        return plan.estimateBytes(bandRows);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("bandRows", bandRows);
+        stats.put("minPixels", minPixels);
+        stats.put("active", active.get());
+        stats.put("transcodes", transcodes.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decoders.shutdownNow();
+    }
+
+    // Whether the source has alpha, or null when the reader could not write it row by row into an int raster
+    private static Boolean streamableLayout(byte[] sourceBytes) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(sourceBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                String format = reader.getFormatName().toLowerCase();
+                if (format.equals("png")) {
+                    return pngLayout(reader.getImageMetadata(0));
+                }
+                if (format.equals("jpeg") || format.equals("jpg")) {
+                    ImageTypeSpecifier raw = reader.getRawImageType(0);
+                    boolean rgb = raw != null && raw.getNumBands() == 3
+                            && raw.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB;
+                    return rgb ? Boolean.FALSE : null;
+                }
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // interlaced passes, palettes, 16-bit samples and tRNS colour keys all need the whole image
+    private static Boolean pngLayout(IIOMetadata metadata) {
+        Node root = metadata.getAsTree("javax_imageio_png_1.0");
+        String colorType = null;
+        boolean plain = false;
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals("IHDR")) {
+                colorType = attribute(node, "colorType");
+                plain = "8".equals(attribute(node, "bitDepth")) && "none".equals(attribute(node, "interlaceMethod"));
+            } else if (node.getNodeName().equals("tRNS")) {
+                return null;
+            }
+        }
+        if (!plain) {
+            return null;
+        }
+        if ("RGB".equals(colorType)) {
+            return Boolean.FALSE;
+        }
+        return "RGBAlpha".equals(colorType) ? Boolean.TRUE : null;
+    }
+
+    private static String attribute(Node node, String name) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        return attribute != null ? attribute.getNodeValue() : null;
+    }
+
+    private static ImageResampler.RowSource flattened(ImageResampler.RowSource source) {
+        return row -> {
+            source.next(row);
+            PixelKernels.FLATTEN.apply(row, row, 0, row.length);
+        };
+    }
+
+    // Full-size image over a buffer that fetches each row from source the first time it is read
+    private static BufferedImage pullImage(ImageResampler.RowSource source, int width, int height, boolean alpha) {
+        return packedImage(new PullBuffer(source, width, height), width, height, alpha);
+    }
+
+    private static BufferedImage packedImage(DataBuffer buffer, int width, int height, boolean alpha) {
+        ColorModel colorModel = alpha
+                ? ColorModel.getRGBdefault()
+                : new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+        SinglePixelPackedSampleModel sampleModel = new SinglePixelPackedSampleModel(
+                DataBuffer.TYPE_INT, width, height, alpha ? ARGB_MASKS : RGB_MASKS);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    // What a transcode will decode and produce, worked out from the header
+    public static final class Plan {
+
+        private final int factor;
+        private final int width;
+        private final int height;
+        private final int targetWidth;
+        private final int targetHeight;
+        private final boolean alpha;
+        private final boolean flatten;
+        private final String outputFormat;
+        private final long sourceLength;
+
+        private Plan(int factor, int width, int height, int targetWidth, int targetHeight,
+                     boolean alpha, boolean flatten, String outputFormat, long sourceLength) {
+            this.factor = factor;
+            this.width = width;
+            this.height = height;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.alpha = alpha;
+            this.flatten = flatten;
+            this.outputFormat = outputFormat;
+            this.sourceLength = sourceLength;
+        }
+
+        // the band and its spare row, the decoder's row, the resampler window and the encoder's row, plus
+        // the compressed source, which is held as a whole while it is decoded
+        private long estimateBytes(int bandRows) {
+            long rows = (long) (Math.max(1, bandRows) + 3) * width;
+            long resampler = targetWidth != width || targetHeight != height
+                    ? ImageResampler.lanczos3RowPixels(width, height, targetWidth, targetHeight)
+                    : 0;
+            return (rows + resampler + targetWidth) * Integer.BYTES + sourceLength;
+        }
+
+        public String getOutputFormat() {
+            return outputFormat;
+        }
+    }
+
+    // Runs the reader on its own thread; each decoded row goes through the queue to the encoding thread
+    private static final class Decoder implements Runnable, ImageResampler.RowSource, IIOReadUpdateListener {
+
+        private final byte[] sourceBytes;
+        private final Plan plan;
+        private final RowBuffer destination;
+        private final BlockingQueue<int[]> free;
+        private final BlockingQueue<int[]> filled;
+        private volatile Throwable failure;
+        private ImageReader reader;
+
+        private Decoder(byte[] sourceBytes, Plan plan, int bandRows) {
+            this.sourceBytes = sourceBytes;
+            this.plan = plan;
+            this.destination = new RowBuffer(plan.width, plan.height);
+            // one spare row keeps the reader busy while the encoder copies; END always finds a slot
+            this.free = new ArrayBlockingQueue<>(bandRows + 1);
+            this.filled = new ArrayBlockingQueue<>(bandRows + 2);
+            for (int i = 0; i < bandRows + 1; i++) {
+                free.add(new int[plan.width]);
+            }
+        }
+
+        @Override
+        public void run() {
+            try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(sourceBytes))) {
+                reader = ImageIO.getImageReaders(input).next();
+                try {
+                    reader.setInput(input, true, true);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    if (plan.factor > 1) {
+                        param.setSourceSubsampling(plan.factor, plan.factor, 0, 0);
+                    }
+                    // the readers write each row into the destination, then report it to the listener
+                    param.setDestination(packedImage(destination, plan.width, plan.height, plan.alpha));
+                    reader.addIIOReadUpdateListener(this);
+                    reader.read(0, param);
+                } finally {
+                    reader.dispose();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                filled.offer(END);
+            }
+        }
+
+        // encoding side
+        @Override
+        public void next(int[] row) throws IOException {
+            int[] decoded;
+            try {
+                decoded = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decoded rows");
+            }
+            if (decoded == END) {
+                throw new IOException("Decoding stopped before the last row", failure);
+            }
+            System.arraycopy(decoded, 0, row, 0, row.length);
+            free.add(decoded);
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                                int width, int height, int periodX, int periodY, int[] bands) {
+            try {
+                int[] row = free.take();
+                System.arraycopy(destination.row, 0, row, 0, row.length);
+                filled.put(row);
+            } catch (InterruptedException e) {
+                // the encoder is done or gone; the reader checks for abort after every row
+                source.abort();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                                    int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
+    // Backs a full-size destination with a single row: every row the reader writes lands in the same ints
+    private static final class RowBuffer extends DataBuffer {
+
+        private final int[] row;
+
+        private RowBuffer(int width, int height) {
+            super(DataBuffer.TYPE_INT, width * height);
+            this.row = new int[width];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return row[i % row.length];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            row[i % row.length] = val;
+        }
+    }
+
+    // Read-only buffer for the writer; rows must be read top to bottom, which both encoders do
+    private static final class PullBuffer extends DataBuffer {
+
+        private final ImageResampler.RowSource source;
+        private final int[] row;
+        private int rowStart;
+        private int rowEnd;
+
+        private PullBuffer(ImageResampler.RowSource source, int width, int height) {
+            super(DataBuffer.TYPE_INT, width * height);
+            this.source = source;
+            this.row = new int[width];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            if (i >= rowEnd) {
+                advance(i);
+            } else if (i < rowStart) {
+                throw new IllegalStateException("Rows are only available in order");
+            }
+            return row[i - rowStart];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("Pulled rows are read-only");
+        }
+
+        private void advance(int i) {
+            if (i >= rowEnd + row.length) {
+                throw new IllegalStateException("Rows are only available in order");
+            }
+            try {
+                source.next(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rowStart = rowEnd;
+            rowEnd += row.length;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package hr.algebra.photoapp.service.image;
+
+import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.util.ColorSignature;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Singleton (Spring managed)
+// In-memory colour histograms of every processed photo, packed into one float array so a query is a single
+// linear scan over 64 floats per photo and never touches image bytes
+@Component
+@Slf4j
+public class ColorIndex {
+
+    public record Match(long photoId, double score) {
+    }
+
+    private static final int BINS = ColorSignature.BINS;
+
+    private final PhotoRepository photoRepository;
+    // RGB distance at which a bin stops counting towards a colour
+    private final double colorRadius;
+    private final double minColorShare;
+    private final double minPaletteSimilarity;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private long[] photoIds = new long[256];
+    private float[] histograms = new float[256 * BINS];
+    private int size;
+    private long queries;
+    private long queryNanos;
+
+    public ColorIndex(PhotoRepository photoRepository,
+                      @Value("${photoapp.colors.radius:100}") double colorRadius,
+                      @Value("${photoapp.colors.min-share:0.2}") double minColorShare,
+                      @Value("${photoapp.colors.min-similarity:0.6}") double minPaletteSimilarity) {
+        this.photoRepository = photoRepository;
+        this.colorRadius = colorRadius;
+        this.minColorShare = minColorShare;
+        this.minPaletteSimilarity = minPaletteSimilarity;
+    }
+
+    @PostConstruct
+    public void load() {
+        List<Object[]> rows = photoRepository.findColorHistograms();
+        for (Object[] row : rows) {
+            add((Long) row[0], (byte[]) row[1]);
+        }
+        log.info("Color index: {} photos", rows.size());
+    }
+
+    public void add(long photoId, byte[] histogram) {
+        float[] shares = ColorSignature.shares(histogram);
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(photoId);
+            if (slot == null) {
+                if (size == photoIds.length) {
+                    photoIds = Arrays.copyOf(photoIds, size * 2);
+                    histograms = Arrays.copyOf(histograms, size * 2 * BINS);
+                }
+                slot = size++;
+                slots.put(photoId, slot);
+                photoIds[slot] = photoId;
+            }
+            System.arraycopy(shares, 0, histograms, slot * BINS, BINS);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the last slot moves into the hole, so the arrays stay dense
+    public void remove(long photoId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.remove(photoId);
+            if (slot == null) {
+                return;
+            }
+            int last = --size;
+            if (slot != last) {
+                photoIds[slot] = photoIds[last];
+                System.arraycopy(histograms, last * BINS, histograms, slot * BINS, BINS);
+                slots.put(photoIds[slot], slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long photoId) {
+        lock.readLock().lock();
+        try {
+            return slots.containsKey(photoId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Photos where at least the minimum share of pixels is close to rgb, highest share first.
+    // Each bin is weighted by how close its centre is to the colour, falling off linearly to the radius.
+    public List<Match> dominatedBy(int rgb, int limit) {
+        float[] weights = new float[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            double distance = ColorSignature.distance(ColorSignature.binColor(bin), rgb);
+            weights[bin] = (float) Math.max(0, 1 - distance / colorRadius);
+        }
+        return scan(weights, null, minColorShare, limit);
+    }
+
+    // Photos whose colour distribution overlaps the given photo's the most (histogram intersection)
+    public List<Match> similarPalette(long photoId, int limit) {
+        lock.readLock().lock();
+        float[] query;
+        try {
+            Integer slot = slots.get(photoId);
+            if (slot == null) {
+                return List.of();
+            }
+            query = Arrays.copyOfRange(histograms, slot * BINS, slot * BINS + BINS);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return scan(query, photoId, minPaletteSimilarity, limit);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("photos", size);
+            stats.put("memoryBytes", (long) histograms.length * Float.BYTES + (long) photoIds.length * Long.BYTES);
+        } finally {
+            lock.readLock().unlock();
+        }
+        synchronized (this) {
+            stats.put("queries", queries);
+            stats.put("averageQueryMicros", queries > 0 ? queryNanos / queries / 1000 : 0);
+        }
+        return stats;
+    }
+
+    // weights set: dot product with each histogram; intersection set: sum of bin-wise minimums
+    private List<Match> scan(float[] query, Long intersectionWith, double minScore, int limit) {
+        long started = System.nanoTime();
+        List<Match> matches = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < size; slot++) {
+                int offset = slot * BINS;
+                float score = 0;
+                if (intersectionWith == null) {
+                    for (int bin = 0; bin < BINS; bin++) {
+                        score += query[bin] * histograms[offset + bin];
+                    }
+                } else {
+                    if (photoIds[slot] == intersectionWith) {
+                        continue;
+                    }
+                    for (int bin = 0; bin < BINS; bin++) {
+                        score += Math.min(query[bin], histograms[offset + bin]);
+                    }
+                }
+                if (score >= minScore) {
+                    matches.add(new Match(photoIds[slot], score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        matches.sort(Comparator.comparingDouble(Match::score).reversed().thenComparingLong(Match::photoId));
+        synchronized (this) {
+            queries++;
+            queryNanos += System.nanoTime() - started;
+        }
+        return matches.size() > limit ? matches.subList(0, limit) : matches;
+    }
+}
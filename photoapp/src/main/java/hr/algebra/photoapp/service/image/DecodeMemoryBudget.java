@@ -0,0 +1,127 @@
+package hr.algebra.photoapp.service.image;
+
+import hr.algebra.photoapp.util.ImageInfo;
+import hr.algebra.photoapp.util.ImageProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.awt.Dimension;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Singleton (Spring managed) + Guard Pattern (admission control)
+// Global budget for decoded pixel memory; every decode reserves its raster size from the header first
+@Component
+@Slf4j
+public class DecodeMemoryBudget {
+
+    private final long capacityBytes;
+    private final long maxWaitMillis;
+
+    private long reservedBytes;
+    private long peakBytes;
+    private int waiting;
+    private long rejected;
+
+    // budget-mb <= 0 means a quarter of the maximum heap
+    public DecodeMemoryBudget(@Value("${photoapp.decode.budget-mb:0}") long budgetMb,
+                              @Value("${photoapp.decode.max-wait-ms:10000}") long maxWaitMillis) {
+        this.capacityBytes = budgetMb > 0
+                ? budgetMb * 1024 * 1024
+                : Runtime.getRuntime().maxMemory() / 4;
+        this.maxWaitMillis = maxWaitMillis;
+        log.info("Decode memory budget: {} MB", capacityBytes / (1024 * 1024));
+    }
+
+    // Blocks until the bytes fit, up to the configured wait; 503 when they do not fit in time
+    public Reservation reserve(long bytes) {
+        if (bytes > capacityBytes) {
+            synchronized (this) {
+                rejected++;
+            }
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Image is too large to process");
+        }
+
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            waiting++;
+            try {
+                while (reservedBytes + bytes > capacityBytes) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        rejected++;
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                "Image processing is busy, please try again");
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected++;
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Image processing was interrupted");
+            } finally {
+                waiting--;
+            }
+
+            reservedBytes += bytes;
+            peakBytes = Math.max(peakBytes, reservedBytes);
+            return new Reservation(bytes);
+        }
+    }
+
+    // Decoded raster for the target size plus an upright copy when rotated;
+    // withOutput adds room for one output no larger than the decoded raster
+    public Reservation reserveDecode(ImageInfo info, Integer targetWidth, Integer targetHeight,
+                                     int orientation, boolean withOutput) {
+        Dimension decoded = ImageProcessor.decodedSize(info, targetWidth, targetHeight, orientation);
+        long outputBytes = withOutput ? (long) decoded.width * decoded.height * Integer.BYTES : 0;
+        return reserve(rasterBytes(decoded, orientation) + outputBytes);
+    }
+
+    public static long rasterBytes(Dimension decoded, int orientation) {
+        long bytes = (long) decoded.width * decoded.height * Integer.BYTES;
+        return orientation > ImageInfo.ORIENTATION_NORMAL ? bytes * 2 : bytes;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacityBytes", capacityBytes);
+        stats.put("reservedBytes", reservedBytes);
+        stats.put("peakBytes", peakBytes);
+        stats.put("waiting", waiting);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+
+    // Held while the pixels are alive; close() gives the bytes back, shrinkTo() returns what is no longer needed
+    public final class Reservation implements AutoCloseable {
+
+        private long bytes;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public void shrinkTo(long remainingBytes) {
+            synchronized (DecodeMemoryBudget.this) {
+                long freed = bytes - Math.max(0, remainingBytes);
+                if (freed <= 0) {
+                    return;
+                }
+                bytes -= freed;
+                reservedBytes -= freed;
+                DecodeMemoryBudget.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            shrinkTo(0);
+        }
+    }
+}
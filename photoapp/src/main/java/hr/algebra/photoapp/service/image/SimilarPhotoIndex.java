@@ -0,0 +1,207 @@
+package hr.algebra.photoapp.service.image;
+
+import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.util.PerceptualHash;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Singleton (Spring managed) + Multi-Index Hashing
+// In-memory index of perceptual hashes answering "photos within Hamming distance k" without a full scan.
+// The 64-bit hash is split into four 16-bit chunks with one table each: two hashes within distance k
+// share at least one chunk within distance k / 4, so only those buckets need to be looked at.
+@Component
+@Slf4j
+public class SimilarPhotoIndex {
+
+    public record Match(long photoId, long ownerId, int distance) {
+    }
+
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = PerceptualHash.BITS / CHUNKS;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final PhotoRepository photoRepository;
+
+    @Getter
+    private final int duplicateDistance;
+    @Getter
+    private final int defaultDistance;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    // tables[chunk] maps a chunk value to the photos with that value
+    private final Buckets[] tables = newTables();
+    private long queries;
+    private long queryNanos;
+
+    public SimilarPhotoIndex(PhotoRepository photoRepository,
+                             @Value("${photoapp.similar.duplicate-distance:6}") int duplicateDistance,
+                             @Value("${photoapp.similar.default-distance:12}") int defaultDistance) {
+        this.photoRepository = photoRepository;
+        this.duplicateDistance = duplicateDistance;
+        this.defaultDistance = defaultDistance;
+    }
+
+    @PostConstruct
+    public void load() {
+        List<Object[]> rows = photoRepository.findPerceptualHashes();
+        for (Object[] row : rows) {
+            add((Long) row[0], (Long) row[1], (Long) row[2]);
+        }
+        log.info("Similar photo index: {} photos", rows.size());
+    }
+
+    public void add(long photoId, long ownerId, long hash) {
+        Entry entry = new Entry(photoId, ownerId, hash);
+        lock.writeLock().lock();
+        try {
+            detach(photoId);
+            entries.put(photoId, entry);
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                tables[chunk].add(chunk(hash, chunk), entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long photoId) {
+        lock.writeLock().lock();
+        try {
+            detach(photoId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Closest first
+    public List<Match> search(long hash, int maxDistance) {
+        long started = System.nanoTime();
+        int radius = Math.min(maxDistance / CHUNKS, CHUNK_BITS);
+        List<Match> matches = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+
+        lock.readLock().lock();
+        try {
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                probe(tables[chunk], chunk(hash, chunk), 0, radius, hash, maxDistance, seen, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        matches.sort(Comparator.comparingInt(Match::distance).thenComparingLong(Match::photoId));
+        synchronized (this) {
+            queries++;
+            queryNanos += System.nanoTime() - started;
+        }
+        return matches;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("photos", entries.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        synchronized (this) {
+            stats.put("queries", queries);
+            stats.put("averageQueryMicros", queries > 0 ? queryNanos / queries / 1000 : 0);
+        }
+        return stats;
+    }
+
+    // the bucket of value, then every value reachable by flipping up to flipsLeft more bits from fromBit on
+    private void probe(Buckets table, int value, int fromBit, int flipsLeft, long hash, int maxDistance,
+                       Set<Long> seen, List<Match> matches) {
+        List<Entry> bucket = table.get(value);
+        if (bucket != null) {
+            for (Entry entry : bucket) {
+                int distance = PerceptualHash.distance(entry.hash(), hash);
+                if (distance <= maxDistance && seen.add(entry.photoId())) {
+                    matches.add(new Match(entry.photoId(), entry.ownerId(), distance));
+                }
+            }
+        }
+        if (flipsLeft == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+            probe(table, value ^ (1 << bit), bit + 1, flipsLeft - 1, hash, maxDistance, seen, matches);
+        }
+    }
+
+    // callers hold the write lock
+    private void detach(long photoId) {
+        Entry entry = entries.remove(photoId);
+        if (entry == null) {
+            return;
+        }
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            tables[chunk].remove(chunk(entry.hash(), chunk), entry);
+        }
+    }
+
+    private static Buckets[] newTables() {
+        Buckets[] tables = new Buckets[CHUNKS];
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            tables[chunk] = new Buckets(1 << CHUNK_BITS);
+        }
+        return tables;
+    }
+
+    private static int chunk(long hash, int chunk) {
+        return (int) (hash >>> (chunk * CHUNK_BITS)) & CHUNK_MASK;
+    }
+
+    private record Entry(long photoId, long ownerId, long hash) {
+    }
+
+    // chunk value -> photos with that value; buckets are allocated on first use and dropped when emptied
+    private static final class Buckets {
+
+        private final List<List<Entry>> buckets;
+
+        private Buckets(int size) {
+            this.buckets = new ArrayList<>(Collections.nCopies(size, null));
+        }
+
+        private List<Entry> get(int value) {
+            return buckets.get(value);
+        }
+
+        private void add(int value, Entry entry) {
+            List<Entry> bucket = buckets.get(value);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                buckets.set(value, bucket);
+            }
+            bucket.add(entry);
+        }
+
+        private void remove(int value, Entry entry) {
+            List<Entry> bucket = buckets.get(value);
+            bucket.remove(entry);
+            if (bucket.isEmpty()) {
+                buckets.set(value, null);
+            }
+        }
+    }
+}
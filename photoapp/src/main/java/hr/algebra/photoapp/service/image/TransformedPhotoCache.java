@@ -0,0 +1,253 @@
+package hr.algebra.photoapp.service.image;
+
+import hr.algebra.photoapp.dto.RenderedPhoto;
+import hr.algebra.photoapp.util.ImageProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Cache-Aside Pattern (two tiers: memory, then disk)
+// Encoded outputs of download transforms, keyed by photo id and the canonical transform
+@Component
+@Slf4j
+public class TransformedPhotoCache {
+
+    private final long memoryBudgetBytes;
+    private final int maxEntryBytes;
+    private final long diskBudgetBytes;
+    private final Path directory;
+
+    // access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, CachedPhoto> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+    private long hits;
+    private long misses;
+
+    public TransformedPhotoCache(@Value("${photoapp.cache.memory-mb:64}") long memoryMb,
+                                 @Value("${photoapp.cache.max-entry-mb:8}") int maxEntryMb,
+                                 @Value("${photoapp.cache.disk-mb:1024}") long diskMb,
+                                 @Value("${photoapp.cache.dir:cache/transforms}") String directory) throws IOException {
+        this.memoryBudgetBytes = memoryMb * 1024 * 1024;
+        this.maxEntryBytes = maxEntryMb * 1024 * 1024;
+        this.diskBudgetBytes = diskMb * 1024 * 1024;
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+        loadDiskIndex();
+    }
+
+    // Cached output, or null on a miss
+    public RenderedPhoto get(long photoId, String transformKey) {
+        String file = fileName(photoId, transformKey);
+
+        synchronized (this) {
+            CachedPhoto cached = memory.get(file);
+            if (cached != null) {
+                hits++;
+                return RenderedPhoto.stored(cached.bytes, cached.contentType);
+            }
+            if (!disk.containsKey(file)) {
+                misses++;
+                return null;
+            }
+        }
+
+        try {
+            Path path = directory.resolve(file);
+            byte[] bytes = Files.readAllBytes(path);
+            // keeps the on-disk order close to the access order for the next restart
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            String contentType = contentType(file);
+            synchronized (this) {
+                hits++;
+                disk.get(file);
+                putInMemory(file, bytes, contentType);
+            }
+            return RenderedPhoto.stored(bytes, contentType);
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Long size = disk.remove(file);
+                diskBytes -= size != null ? size : 0;
+                misses++;
+            }
+            return null;
+        } catch (IOException e) {
+            log.warn("Failed to read cached transform {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    // Fills the cache while the miss is streamed to the client
+    public RenderedPhoto capture(long photoId, String transformKey, RenderedPhoto rendered) {
+        return rendered.capture(bytes -> put(photoId, transformKey, bytes, rendered.getContentType()), maxEntryBytes);
+    }
+
+    public void put(long photoId, String transformKey, byte[] bytes, String contentType) {
+        String file = fileName(photoId, transformKey);
+        synchronized (this) {
+            putInMemory(file, bytes, contentType);
+        }
+
+        // temp file + move, so readers never see a half-written entry
+        try {
+            Path temp = Files.createTempFile(directory, "tmp-", ".part");
+            Files.write(temp, bytes);
+            Files.move(temp, directory.resolve(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            List<String> evicted;
+            synchronized (this) {
+                Long previous = disk.put(file, (long) bytes.length);
+                diskBytes += bytes.length - (previous != null ? previous : 0);
+                evicted = evictDisk();
+            }
+            deleteFiles(evicted);
+        } catch (IOException e) {
+            log.warn("Failed to write cached transform {}: {}", file, e.getMessage());
+        }
+    }
+
+    // Drops every cached transform of the photo, both tiers
+    public void invalidate(long photoId) {
+        String prefix = photoId + "_";
+        List<String> removed = new ArrayList<>();
+
+        synchronized (this) {
+            memory.entrySet().removeIf(e -> {
+                if (e.getKey().startsWith(prefix)) {
+                    memoryBytes -= e.getValue().bytes.length;
+                    return true;
+                }
+                return false;
+            });
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    diskBytes -= entry.getValue();
+                    removed.add(entry.getKey());
+                    it.remove();
+                }
+            }
+        }
+
+        deleteFiles(removed);
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memoryEntries", memory.size());
+        stats.put("memoryBytes", memoryBytes);
+        stats.put("diskEntries", disk.size());
+        stats.put("diskBytes", diskBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    private void putInMemory(String file, byte[] bytes, String contentType) {
+        if (bytes.length > maxEntryBytes) {
+            return;
+        }
+
+        CachedPhoto previous = memory.put(file, new CachedPhoto(bytes, contentType));
+        memoryBytes += bytes.length - (previous != null ? previous.bytes.length : 0);
+
+        Iterator<CachedPhoto> it = memory.values().iterator();
+        while (memoryBytes > memoryBudgetBytes && it.hasNext()) {
+            memoryBytes -= it.next().bytes.length;
+            it.remove();
+        }
+    }
+
+    // removes least recently used entries from the index; the files are deleted outside the lock
+    private List<String> evictDisk() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > diskBudgetBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            diskBytes -= entry.getValue();
+            evicted.add(entry.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void deleteFiles(List<String> files) {
+        for (String file : files) {
+            try {
+                Files.deleteIfExists(directory.resolve(file));
+            } catch (IOException e) {
+                log.warn("Failed to delete cached transform {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    // Entries survive restarts; modification time stands in for the last access
+    private void loadDiskIndex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile).toList();
+        }
+
+        List<Path> sorted = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().startsWith("tmp-")) {
+                Files.deleteIfExists(file);
+            } else {
+                sorted.add(file);
+            }
+        }
+        sorted.sort(Comparator.comparing(file -> file.toFile().lastModified()));
+
+        for (Path file : sorted) {
+            long size = Files.size(file);
+            disk.put(file.getFileName().toString(), size);
+            diskBytes += size;
+        }
+        deleteFiles(evictDisk());
+        log.info("Transform cache: {} entries, {} MB on disk", disk.size(), diskBytes / (1024 * 1024));
+    }
+
+    // <photoId>_<hash of the transform>.<format>, the prefix makes per-photo invalidation cheap;
+    // the format is the first field of PhotoTransform.canonicalKey()
+    private static String fileName(long photoId, String transformKey) {
+        String format = transformKey.substring(0, transformKey.indexOf('|'));
+        return photoId + "_" + sha256(transformKey).substring(0, 32) + "." + format;
+    }
+
+    private static String contentType(String file) {
+        return ImageProcessor.mimeType(file.substring(file.lastIndexOf('.') + 1));
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record CachedPhoto(byte[] bytes, String contentType) {
+    }
+}
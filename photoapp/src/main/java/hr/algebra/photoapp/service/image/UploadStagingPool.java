@@ -0,0 +1,66 @@
+package hr.algebra.photoapp.service.image;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Thread Pool Pattern
+// Bounded pool for the blocking half of a batch upload: reading multipart files, hashing and storing them.
+// Kept off the common ForkJoin pool, whose threads run the pixel kernels (ParallelBands, the resampler)
+// for every request. When all threads and the queue are taken, the request thread stages its own files.
+@Component
+public class UploadStagingPool {
+
+    private final ThreadPoolExecutor executor;
+
+    public UploadStagingPool(@Value("${photoapp.upload.staging-threads:4}") int threads) {
+        int size = Math.max(1, threads);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(size * 4),
+                task -> {
+                    Thread thread = new Thread(task, "upload-staging-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Runs every task and returns once all of them have finished; a task's exception is rethrown
+    public void runAll(List<? extends Runnable> tasks) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Runnable task : tasks) {
+            futures.add(executor.submit(task));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while staging uploads", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,16 +1,39 @@
 package hr.algebra.photoapp.service.impl;
 
+import hr.algebra.photoapp.dto.BatchUploadResult;
+import hr.algebra.photoapp.dto.ColorMatch;
+import hr.algebra.photoapp.dto.PhotoTransform;
+import hr.algebra.photoapp.dto.RenderedPhoto;
+import hr.algebra.photoapp.dto.SimilarPhoto;
 import hr.algebra.photoapp.model.PackageType;
 import hr.algebra.photoapp.model.Photo;
+import hr.algebra.photoapp.model.PhotoStatus;
+import hr.algebra.photoapp.model.UploadJob;
 import hr.algebra.photoapp.model.User;
 import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.repository.UploadJobRepository;
 import hr.algebra.photoapp.repository.UserRepository;
 import hr.algebra.photoapp.service.PhotoService;
+import hr.algebra.photoapp.service.UploadProcessingService;
 import hr.algebra.photoapp.service.UserActionService;
+import hr.algebra.photoapp.service.image.BandedTranscoder;
+import hr.algebra.photoapp.service.image.ColorIndex;
+import hr.algebra.photoapp.service.image.DecodeMemoryBudget;
+import hr.algebra.photoapp.service.image.SimilarPhotoIndex;
+import hr.algebra.photoapp.service.image.TransformedPhotoCache;
+import hr.algebra.photoapp.service.image.UploadStagingPool;
 import hr.algebra.photoapp.service.storage.PhotoStorageStrategy;
+import hr.algebra.photoapp.util.ContentHash;
+import hr.algebra.photoapp.util.ImageInfo;
+import hr.algebra.photoapp.util.ImagePipeline;
 import hr.algebra.photoapp.util.ImageProcessor;
+import hr.algebra.photoapp.util.PerceptualHash;
+import hr.algebra.photoapp.util.StorageLayout;
+import hr.algebra.photoapp.util.TilePyramid;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
@@ -18,27 +41,52 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.awt.*;
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 // Service Layer Pattern + Strategy Pattern (for storage) + Facade Pattern + Builder Pattern
 // Implements photo management business logic with image processing capabilities
 @Service
 @RequiredArgsConstructor
 @Transactional
+@Slf4j
 public class PhotoServiceImpl implements PhotoService {
 
     private final PhotoRepository photoRepository;
+    private final UploadJobRepository uploadJobRepository;
     private final UserRepository userRepository;
     private final PhotoStorageStrategy storage;
     private final UserActionService userActionService;
+    private final DecodeMemoryBudget decodeBudget;
+    private final TransformedPhotoCache transformCache;
+    private final UploadProcessingService uploadProcessingService;
+    private final SimilarPhotoIndex similarIndex;
+    private final ColorIndex colorIndex;
+    private final BandedTranscoder bandedTranscoder;
+    private final UploadStagingPool stagingPool;
+
+    // colour search ranks at most this many photos before the other filters apply
+    private static final int COLOR_SEARCH_CANDIDATES = 1000;
 
     @Override
     public Photo upload(MultipartFile file, String description, String hashtags) throws IOException {
@@ -57,12 +105,7 @@ public class PhotoServiceImpl implements PhotoService {
                 .orElseThrow(() -> new ResponseStatusException(
                         HttpStatus.NOT_FOUND, "User not found"));
 
-        // Daily reset
-        LocalDate today = LocalDate.now();
-        if (user.getLastUploadDate() == null || !user.getLastUploadDate().equals(today)) {
-            user.setUploadsToday(0);
-            user.setLastUploadDate(today);
-        }
+        resetDailyUploads(user);
 
         PackageType pkg = user.getPackageType();
 
@@ -76,69 +119,328 @@ public class PhotoServiceImpl implements PhotoService {
             throw new IllegalStateException("FILE_TOO_LARGE");
         }
 
-        byte[] fileBytes = file.getBytes();
+        StagedUpload staged = new StagedUpload(file, StorageLayout.newName(file.getOriginalFilename()));
+        staged.storeRaw(username);
+        if (staged.error != null) {
+            if ("STORAGE_FAILED".equals(staged.error)) {
+                throw new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR,
+                        "Failed to store uploaded file");
+            }
+            throw new IllegalStateException(staged.error);
+        }
 
-        String originalFilename = file.getOriginalFilename();
-        String filename = originalFilename;
+        // Create photo
+        Photo photo = pendingPhoto(staged, username, user, description, hashtags);
+        photoRepository.save(photo);
+        uploadJobRepository.save(uploadJob(photo, format, resizeWidth, resizeHeight));
 
-        // Apply image processing if requested
-        if (format != null || resizeWidth != null || resizeHeight != null) {
-            BufferedImage image = ImageProcessor.loadImage(fileBytes);
+        // Update user statistics
+        user.setUploadsToday(user.getUploadsToday() + 1);
+        user.addUploadSize(staged.size);
+        userRepository.save(user);
+
+        // Log action
+        userActionService.logAction(user, "UPLOAD_PHOTO", 
+                String.format("Uploaded photo: %s (%.2f MB)", file.getOriginalFilename(), 
+                        staged.size / (1024.0 * 1024.0)), null);
+
+        uploadProcessingService.submitAfterCommit(photo.getId());
 
-            if (resizeWidth != null || resizeHeight != null) {
-                int w = resizeWidth != null ? resizeWidth : 0;
-                int h = resizeHeight != null ? resizeHeight : 0;
-                image = ImageProcessor.resize(image, w, h);
+        return photo;
+    }
+
+    @Override
+    public List<BatchUploadResult> uploadBatch(List<MultipartFile> files, String description, String hashtags,
+                                               String format, Integer resizeWidth, Integer resizeHeight) {
+        String username = SecurityContextHolder.getContext()
+                .getAuthentication()
+                .getName();
+
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "User not found"));
+
+        resetDailyUploads(user);
+        PackageType pkg = user.getPackageType();
+
+        // Quota checked once: files past what is left of today's allowance are rejected up front
+        long remaining = Math.max(0, (long) pkg.getMaxUploadsPerDay() - user.getUploadsToday());
+        List<StagedUpload> staged = new ArrayList<>();
+        BatchUploadResult[] results = new BatchUploadResult[files.size()];
+
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            if (staged.size() >= remaining) {
+                results[i] = BatchUploadResult.rejected(file.getOriginalFilename(), "UPLOAD_LIMIT");
+            } else if (file.isEmpty()) {
+                results[i] = BatchUploadResult.rejected(file.getOriginalFilename(), "EMPTY_FILE");
+            } else if (file.getSize() > pkg.getMaxFileSize()) {
+                results[i] = BatchUploadResult.rejected(file.getOriginalFilename(), "FILE_TOO_LARGE");
+            } else {
+                staged.add(new StagedUpload(file, StorageLayout.newName(file.getOriginalFilename())).at(i));
+            }
+        }
+
+        // Reading, header probing and storing are independent per file; blocking I/O, so not on the common pool
+        stagingPool.runAll(staged.stream().<Runnable>map(upload -> () -> upload.storeRaw(username)).toList());
+
+        // All rows in this one transaction; the image work runs on the upload workers afterwards
+        List<Photo> photos = new ArrayList<>();
+        List<StagedUpload> stored = new ArrayList<>();
+        for (StagedUpload upload : staged) {
+            if (upload.error != null) {
+                results[upload.index] = BatchUploadResult.rejected(upload.file.getOriginalFilename(), upload.error);
+            } else {
+                photos.add(pendingPhoto(upload, username, user, description, hashtags));
+                stored.add(upload);
             }
+        }
+        photoRepository.saveAll(photos);
+        uploadJobRepository.saveAll(photos.stream()
+                .map(photo -> uploadJob(photo, format, resizeWidth, resizeHeight))
+                .toList());
+
+        long totalBytes = 0;
+        for (int i = 0; i < photos.size(); i++) {
+            StagedUpload upload = stored.get(i);
+            Photo photo = photos.get(i);
+            results[upload.index] = BatchUploadResult.accepted(upload.file.getOriginalFilename(), photo.getId());
+            totalBytes += upload.size;
+            uploadProcessingService.submitAfterCommit(photo.getId());
+        }
+
+        // Update user statistics once for the whole batch
+        if (!photos.isEmpty()) {
+            user.setUploadsToday(user.getUploadsToday() + photos.size());
+            user.addUploadSize(totalBytes);
+            userRepository.save(user);
+
+            userActionService.logAction(user, "UPLOAD_BATCH",
+                    String.format("Uploaded %d of %d photos (%.2f MB)", photos.size(), files.size(),
+                            totalBytes / (1024.0 * 1024.0)), null);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public Photo uploadByHash(String sha256, String originalFilename, String description, String hashtags) {
+        String username = SecurityContextHolder.getContext()
+                .getAuthentication()
+                .getName();
+
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "User not found"));
+
+        Photo source = findStoredContent(user, sha256)
+                .orElseThrow(() -> new IllegalStateException("UNKNOWN_CONTENT"));
 
-            String outputFormat = format != null ? format : "jpg";
-            fileBytes = ImageProcessor.convertFormat(image, outputFormat);
+        resetDailyUploads(user);
+        PackageType pkg = user.getPackageType();
 
-            filename = removeExtension(originalFilename) + "." + outputFormat;
+        if (user.getUploadsToday() >= pkg.getMaxUploadsPerDay()) {
+            throw new IllegalStateException("UPLOAD_LIMIT");
+        }
+        if (source.getSize() > pkg.getMaxFileSize()) {
+            throw new IllegalStateException("FILE_TOO_LARGE");
         }
 
+        // the stored content decides the extension, it may have been converted on its first upload
+        String sourcePath = source.getFilename();
+        String name = originalFilename != null && !originalFilename.isBlank()
+                ? originalFilename : source.getOriginalFilename();
+        String filename = StorageLayout.newName(sourcePath);
 
-        // Store the file
+        // already processed: file, derivatives and zoom tiles are shared, nothing is decoded again
+        Map<Integer, String> derivatives = new HashMap<>();
+        String tilesPath = null;
         try {
-            storage.store(username, filename, fileBytes);
-        } catch (Exception e) {
-            throw new ResponseStatusException(
-                    HttpStatus.INTERNAL_SERVER_ERROR,
+            storage.copy(sourcePath, username, filename);
+            for (Map.Entry<Integer, String> derivative : source.getDerivatives().entrySet()) {
+                String derivativeName = removeExtension(filename) + ".w" + derivative.getKey() + ".jpg";
+                storage.copy(derivative.getValue(), username, derivativeName);
+                derivatives.put(derivative.getKey(), StorageLayout.path(username, derivativeName));
+            }
+            if (source.getTilesPath() != null) {
+                String tilesName = removeExtension(filename) + "_files";
+                TilePyramid pyramid = TilePyramid.forStored(source.getWidth(), source.getHeight(),
+                        source.getOrientation());
+                for (String tile : pyramid.tilePaths(source.getTilesPath())) {
+                    storage.copy(tile, username, tilesName + tile.substring(source.getTilesPath().length()));
+                }
+                tilesPath = StorageLayout.path(username, tilesName);
+            }
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
                     "Failed to store uploaded file");
         }
 
-        // Get image dimensions
-        Dimension dimensions = ImageProcessor.getImageDimensions(fileBytes);
-
-        // Create photo
         Photo photo = Photo.builder()
-                .filename("/uploads/" + username + "/" + filename) // storage name
-                .originalFilename(originalFilename)
-                .contentType(file.getContentType())
-                .size(fileBytes.length)
+                .filename(StorageLayout.path(username, filename))
+                .originalFilename(name)
+                .contentType(source.getContentType())
+                .size(source.getSize())
                 .description(description)
                 .hashtags(hashtags)
                 .uploadedAt(LocalDateTime.now())
                 .owner(user)
-                .width(dimensions.width)
-                .height(dimensions.height)
+                .width(source.getWidth())
+                .height(source.getHeight())
+                .orientation(source.getOrientation())
+                .contentHash(source.getContentHash())
+                .perceptualHash(source.getPerceptualHash())
+                .colorHistogram(source.getColorHistogram())
+                .palette(source.getPalette())
+                .status(PhotoStatus.READY)
+                .derivatives(derivatives)
+                .tilesPath(tilesPath)
                 .build();
-
         photoRepository.save(photo);
 
-        // Update user statistics
         user.setUploadsToday(user.getUploadsToday() + 1);
-        user.addUploadSize(fileBytes.length);
+        user.addUploadSize(photo.getSize());
         userRepository.save(user);
 
-        // Log action
-        userActionService.logAction(user, "UPLOAD_PHOTO", 
-                String.format("Uploaded photo: %s (%.2f MB)", filename, 
-                        fileBytes.length / (1024.0 * 1024.0)), null);
-
+        userActionService.logAction(user, "UPLOAD_PHOTO",
+                String.format("Uploaded photo by hash: %s (%.2f MB)", name,
+                        photo.getSize() / (1024.0 * 1024.0)), null);
+
+        // the in-memory indexes only learn about the row once it is committed, as after async processing
+        Long photoId = photo.getId();
+        Long ownerId = user.getId();
+        Long perceptualHash = photo.getPerceptualHash();
+        byte[] colorHistogram = photo.getColorHistogram();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                if (perceptualHash != null) {
+                    similarIndex.add(photoId, ownerId, perceptualHash);
+                }
+                if (colorHistogram != null) {
+                    colorIndex.add(photoId, colorHistogram);
+                }
+            }
+        });
         return photo;
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasStoredContent(String sha256) {
+        String username = SecurityContextHolder.getContext()
+                .getAuthentication()
+                .getName();
+
+        return userRepository.findByUsername(username)
+                .flatMap(user -> findStoredContent(user, sha256))
+                .isPresent();
+    }
+
+    // a processed photo of the user whose stored file has exactly these bytes. Only the user's own photos:
+    // knowing a hash must not let anyone copy or probe other users' files. Identical uploads by different
+    // users are still stored once when the storage backend deduplicates (cas).
+    private Optional<Photo> findStoredContent(User owner, String sha256) {
+        String hash = ContentHash.normalize(sha256);
+        if (hash == null) {
+            return Optional.empty();
+        }
+        return photoRepository.findFirstByOwnerAndContentHashAndStatus(owner, hash, PhotoStatus.READY);
+    }
+
+    // Daily reset
+    private void resetDailyUploads(User user) {
+        LocalDate today = LocalDate.now();
+        if (user.getLastUploadDate() == null || !user.getLastUploadDate().equals(today)) {
+            user.setUploadsToday(0);
+            user.setLastUploadDate(today);
+        }
+    }
+
+    // Dimensions come from the header; the workers fill in the rest once processed
+    private Photo pendingPhoto(StagedUpload upload, String username, User user,
+                               String description, String hashtags) {
+        return Photo.builder()
+                .filename(StorageLayout.path(username, upload.filename)) // storage name
+                .originalFilename(upload.file.getOriginalFilename())
+                .contentType(upload.info.getMimeType())
+                .size(upload.size)
+                .description(description)
+                .hashtags(hashtags)
+                .uploadedAt(LocalDateTime.now())
+                .owner(user)
+                .width(upload.info.getWidth())
+                .height(upload.info.getHeight())
+                .orientation(upload.info.getOrientation())
+                .contentHash(upload.contentHash)
+                .status(PhotoStatus.PENDING)
+                .build();
+    }
+
+    // the form sends an empty format for "keep original"
+    private UploadJob uploadJob(Photo photo, String format, Integer resizeWidth, Integer resizeHeight) {
+        return UploadJob.builder()
+                .photoId(photo.getId())
+                .format(format != null && !format.isBlank() ? format : null)
+                .resizeWidth(resizeWidth)
+                .resizeHeight(resizeHeight)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    // One accepted file on its way to storage; touches no JPA state, so it can run on any thread
+    private final class StagedUpload {
+
+        private final MultipartFile file;
+        private final String filename;
+        private int index;
+        private long size;
+        private ImageInfo info;
+        private String contentHash;
+        private String error;
+
+        private StagedUpload(MultipartFile file, String filename) {
+            this.file = file;
+            this.filename = filename;
+        }
+
+        private StagedUpload at(int index) {
+            this.index = index;
+            return this;
+        }
+
+        // Header only, so unsupported files are still rejected while the client waits;
+        // the raw file is stored and conversion and derivatives happen on the upload workers.
+        // The multipart part is streamed each time, so the photo is never held on the heap as a whole.
+        private void storeRaw(String username) {
+            try (InputStream header = file.getInputStream()) {
+                info = ImageProcessor.probe(header);
+            } catch (IOException e) {
+                error = "UNSUPPORTED_FORMAT";
+                return;
+            }
+            if (info == null) {
+                error = "UNSUPPORTED_FORMAT";
+                return;
+            }
+            log.debug("Upload {}: {}", filename, info);
+
+            try (InputStream content = file.getInputStream()) {
+                contentHash = ContentHash.sha256(content);
+            } catch (IOException e) {
+                error = "STORAGE_FAILED";
+                return;
+            }
+
+            try (InputStream content = file.getInputStream()) {
+                size = storage.store(username, filename, content);
+            } catch (Exception e) {
+                error = "STORAGE_FAILED";
+            }
+        }
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Photo findById(Long id) {
@@ -171,11 +473,28 @@ public class PhotoServiceImpl implements PhotoService {
     @Override
     @Transactional(readOnly = true)
     public Page<Photo> searchPhotos(String hashtag, String author, Long minSize, Long maxSize,
-                                   LocalDateTime startDate, LocalDateTime endDate, 
-                                   int page, int size) {
+                                   LocalDateTime startDate, LocalDateTime endDate,
+                                   Integer color, int page, int size) {
         PageRequest pageRequest = PageRequest.of(page, size);
-        return photoRepository.searchPhotos(hashtag, author, minSize, maxSize, 
-                startDate, endDate, pageRequest);
+        if (color == null) {
+            return photoRepository.searchPhotos(hashtag, author, minSize, maxSize,
+                    startDate, endDate, pageRequest);
+        }
+
+        // the index ranks by colour, the database applies the other filters to the ranked ids
+        List<Long> ranked = colorIndex.dominatedBy(color, COLOR_SEARCH_CANDIDATES).stream()
+                .map(ColorIndex.Match::photoId)
+                .toList();
+        if (ranked.isEmpty()) {
+            return Page.empty(pageRequest);
+        }
+        Set<Long> passing = new HashSet<>(photoRepository.filterIds(ranked, hashtag, author, minSize, maxSize,
+                startDate, endDate));
+        List<Long> ids = ranked.stream().filter(passing::contains).toList();
+
+        int from = (int) Math.min(pageRequest.getOffset(), ids.size());
+        List<Long> pageIds = ids.subList(from, Math.min(from + size, ids.size()));
+        return new PageImpl<>(findAllInOrder(pageIds), pageRequest, ids.size());
     }
 
     @Override
@@ -231,10 +550,25 @@ public class PhotoServiceImpl implements PhotoService {
         // Delete from storage
         try {
             storage.delete(photo.getFilename());
+            if (photo.getReplacedOriginal() != null) {
+                storage.delete(photo.getReplacedOriginal());
+            }
+            for (String derivative : photo.getDerivatives().values()) {
+                storage.delete(derivative);
+            }
+            if (photo.getTilesPath() != null) {
+                for (String tile : tilePyramid(photo).tilePaths(photo.getTilesPath())) {
+                    storage.delete(tile);
+                }
+            }
         } catch (Exception e) {
 
         }
 
+        transformCache.invalidate(photo.getId());
+        similarIndex.remove(photo.getId());
+        colorIndex.remove(photo.getId());
+        uploadJobRepository.deleteByPhotoId(photo.getId());
         photoRepository.delete(photo);
 
         // Log action
@@ -282,36 +616,182 @@ public class PhotoServiceImpl implements PhotoService {
 
     @Override
     @Transactional(readOnly = true)
-    public byte[] getPhotoAsFormat(Photo photo, String format) throws IOException {
+    public RenderedPhoto renderPhoto(Photo photo, PhotoTransform transform) throws IOException {
+        if (transform.isPassthrough()) {
+            return RenderedPhoto.stored(storage.open(photo.getFilename()), storedContentType(photo));
+        }
+
+        // Repeated transforms are served from the cache; a miss fills it while streaming
+        String key = transform.canonicalKey();
+        RenderedPhoto cached = transformCache.get(photo.getId(), key);
+        if (cached != null) {
+            return cached;
+        }
+
         byte[] originalBytes = storage.load(photo.getFilename());
-        
-        if (format == null || format.isEmpty()) {
-            return originalBytes;
+        return transformCache.capture(photo.getId(), key,
+                render(photo, originalBytes, orientationOf(photo), transform));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public RenderedPhoto renderView(Photo photo, Integer size, PhotoTransform transform) throws IOException {
+        PhotoTransform originalTransform = originalTransform(size, transform);
+        if (originalTransform != null) {
+            return renderPhoto(photo, originalTransform);
         }
 
-        BufferedImage image = ImageProcessor.loadImage(originalBytes);
-        return ImageProcessor.convertFormat(image, format);
+        String derivative = size != null ? photo.getDerivativePath(size) : null;
+        if (derivative != null) {
+            try {
+                // derivatives are upright JPEGs already
+                return transform.isPassthrough()
+                        ? RenderedPhoto.stored(storage.open(derivative), "image/jpeg")
+                        : render(photo, storage.load(derivative), ImageInfo.ORIENTATION_NORMAL, transform);
+            } catch (IOException e) {
+                log.warn("Derivative {} missing, serving original", derivative);
+            }
+        }
+        return renderPhoto(photo, transform);
     }
 
     @Override
     @Transactional(readOnly = true)
-    public byte[] getPhotoWithFilters(Photo photo, String format, Integer width, Integer height,
-                                     boolean sepia, boolean blur) throws IOException {
-        byte[] originalBytes = storage.load(photo.getFilename());
-        BufferedImage image = ImageProcessor.loadImage(originalBytes);
+    public String getETag(Photo photo, Integer size, PhotoTransform transform) {
+        // the same choice of source as renderView
+        PhotoTransform originalTransform = originalTransform(size, transform);
+        String derivative = originalTransform == null && size != null ? photo.getDerivativePath(size) : null;
+        PhotoTransform applied = originalTransform != null ? originalTransform : transform;
+
+        String content = photo.getContentHash() != null
+                ? photo.getContentHash()
+                : photo.getFilename() + ":" + photo.getSize();
+        String variant = String.join("|", content,
+                derivative != null ? derivative : "original",
+                applied.isPassthrough() ? "stored" : applied.canonicalKey());
+        return "\"" + ContentHash.sha256(variant.getBytes(StandardCharsets.UTF_8)).substring(0, 32) + "\"";
+    }
+
+    // Crops and explicit sizes are rendered from the original (null otherwise): coordinates and sizes
+    // refer to the original, and size only bounds a crop that was given no size
+    private PhotoTransform originalTransform(Integer size, PhotoTransform transform) {
+        if (transform.getRegion() == null && transform.getWidth() == null && transform.getHeight() == null) {
+            return null;
+        }
+        Rectangle region = transform.getRegion();
+        if (region != null && size != null && transform.getWidth() == null && transform.getHeight() == null
+                && Math.max(region.width, region.height) > size) {
+            boolean landscape = region.width >= region.height;
+            return transform.toBuilder()
+                    .width(landscape ? size : null)
+                    .height(landscape ? null : size)
+                    .build();
+        }
+        return transform;
+    }
+
+    // Decodes only what the transform needs, runs it as one pipeline and leaves encoding to the caller's stream
+    private RenderedPhoto render(Photo photo, byte[] sourceBytes, int orientation,
+                                 PhotoTransform transform) throws IOException {
+        ImageInfo info = ImageProcessor.probe(sourceBytes);
+        if (info == null) {
+            throw new IOException("Stored photo " + photo.getId() + " could not be decoded");
+        }
+        String outputFormat = ImageProcessor.normalizeFormat(transform.getFormat());
+
+        // Conversions and resizes of large photos stream through in bands, reserving a few rows and the source
+        if (transform.isResizeOnly()) {
+            BandedTranscoder.Plan plan = bandedTranscoder.plan(sourceBytes, info, transform.getWidth(),
+                    transform.getHeight(), orientation, outputFormat, transform.isProgressive());
+            if (plan != null) {
+                DecodeMemoryBudget.Reservation reservation = decodeBudget.reserve(bandedTranscoder.estimateBytes(plan));
+                return RenderedPhoto.streamed(
+                        out -> bandedTranscoder.transcode(sourceBytes, plan, transform.getQuality(), out),
+                        outputFormat, reservation);
+            }
+        }
+
+        // A crop is decoded straight from the stored pixels it covers
+        Rectangle storedRegion = null;
+        if (transform.getRegion() != null) {
+            Rectangle region = transform.getRegion().intersection(ImageProcessor.uprightBounds(info, orientation));
+            if (region.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Region is outside the photo");
+            }
+            storedRegion = ImageProcessor.storedRegion(region, info, orientation);
+        }
+
+        // Resize, colour adjustments and blur planned as one pipeline, flattened for JPEG in the same pass
+        ImagePipeline pipeline = transform.hasPixelChanges()
+                ? ImagePipeline.builder()
+                        .resize(transform.getWidth(), transform.getHeight())
+                        .sepia(transform.isSepia())
+                        .colors(transform.getColors())
+                        .gamma(transform.getGamma())
+                        .blur(transform.getBlurRadius())
+                        .opaque(ImageProcessor.isOpaqueFormat(outputFormat))
+                        .build()
+                : null;
+
+        // Reserved from the header before decoding; held until the result has been encoded
+        Dimension decoded = ImageProcessor.decodedSize(info, transform.getWidth(), transform.getHeight(),
+                orientation, storedRegion);
+        long workingBytes = pipeline != null ? pipeline.estimatePeakBytes(decoded.width, decoded.height) : 0;
+        DecodeMemoryBudget.Reservation reservation = decodeBudget.reserve(
+                DecodeMemoryBudget.rasterBytes(decoded, orientation) + workingBytes);
 
-        // Apply filters
-        image = ImageProcessor.applyFilters(image, width, height, sepia, blur);
+        try {
+            // Downscales and crops only decode the pixels they need
+            BufferedImage image = ImageProcessor.loadUpright(
+                    sourceBytes, transform.getWidth(), transform.getHeight(), orientation, storedRegion);
+            if (image == null) {
+                throw new IOException("Stored photo " + photo.getId() + " could not be decoded");
+            }
+
+            if (pipeline != null) {
+                ImagePipeline.Result result = pipeline.run(image);
+                log.info("Transform of photo {} peaked at {} KB of pixel buffers",
+                        photo.getId(), result.getPeakBytes() / 1024);
+                image = result.getImage();
+            }
 
-        // Convert to desired format
-        String outputFormat = (format != null && !format.isEmpty()) ? format : "jpg";
-        return ImageProcessor.convertFormat(image, outputFormat);
+            reservation.shrinkTo((long) image.getWidth() * image.getHeight() * Integer.BYTES);
+            return RenderedPhoto.encoded(image, outputFormat, transform.getQuality(),
+                    transform.isProgressive(), reservation);
+        } catch (IOException | RuntimeException e) {
+            reservation.close();
+            throw e;
+        }
     }
 
     @Override
     @Transactional(readOnly = true)
-    public byte[] getPhotoBytes(Photo photo) throws IOException {
-        return storage.load(photo.getFilename());
+    public String getTileDescriptor(Photo photo) {
+        if (photo.getTilesPath() == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Photo has no zoom tiles");
+        }
+        return tilePyramid(photo).toDzi();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public byte[] getTile(Photo photo, int level, int column, int row) throws IOException {
+        if (photo.getTilesPath() == null || !tilePyramid(photo).hasTile(level, column, row)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Tile not found");
+        }
+        return storage.load(TilePyramid.tilePath(photo.getTilesPath(), level, column, row));
+    }
+
+    private TilePyramid tilePyramid(Photo photo) {
+        return TilePyramid.forStored(photo.getWidth(), photo.getHeight(), photo.getOrientation());
+    }
+
+    private String storedContentType(Photo photo) {
+        return photo.getContentType() != null ? photo.getContentType() : "application/octet-stream";
+    }
+
+    private int orientationOf(Photo photo) {
+        return photo.getOrientation() != null ? photo.getOrientation() : ImageInfo.ORIENTATION_NORMAL;
     }
 
     @Override
@@ -320,6 +800,73 @@ public class PhotoServiceImpl implements PhotoService {
         return photoRepository.findTop10ByOrderByUploadedAtDesc();
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<SimilarPhoto> findSimilar(Photo photo, Integer maxDistance, int limit) {
+        int distance = maxDistance != null
+                ? Math.max(0, Math.min(maxDistance, PerceptualHash.BITS))
+                : similarIndex.getDefaultDistance();
+        return similarPhotos(photo, distance, null, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<SimilarPhoto> findDuplicates(Photo photo) {
+        return similarPhotos(photo, similarIndex.getDuplicateDistance(), photo.getOwner().getId(), Integer.MAX_VALUE);
+    }
+
+    // Index lookup first, then one query for the photos that made the cut
+    private List<SimilarPhoto> similarPhotos(Photo photo, int maxDistance, Long ownerId, int limit) {
+        if (photo.getPerceptualHash() == null) {
+            return List.of();
+        }
+
+        List<SimilarPhotoIndex.Match> matches = similarIndex.search(photo.getPerceptualHash(), maxDistance).stream()
+                .filter(match -> match.photoId() != photo.getId())
+                .filter(match -> ownerId == null || match.ownerId() == ownerId)
+                .limit(limit)
+                .toList();
+
+        Map<Long, Photo> photos = new HashMap<>();
+        photoRepository.findAllById(matches.stream().map(SimilarPhotoIndex.Match::photoId).toList())
+                .forEach(p -> photos.put(p.getId(), p));
+
+        List<SimilarPhoto> similar = new ArrayList<>();
+        for (SimilarPhotoIndex.Match match : matches) {
+            Photo found = photos.get(match.photoId());
+            if (found != null) {
+                similar.add(new SimilarPhoto(found, match.distance()));
+            }
+        }
+        return similar;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ColorMatch> findSimilarColors(Photo photo, int limit) {
+        List<ColorIndex.Match> matches = colorIndex.similarPalette(photo.getId(), limit);
+
+        Map<Long, Photo> photos = new HashMap<>();
+        photoRepository.findAllById(matches.stream().map(ColorIndex.Match::photoId).toList())
+                .forEach(p -> photos.put(p.getId(), p));
+
+        List<ColorMatch> similar = new ArrayList<>();
+        for (ColorIndex.Match match : matches) {
+            Photo found = photos.get(match.photoId());
+            if (found != null) {
+                similar.add(new ColorMatch(found, match.score()));
+            }
+        }
+        return similar;
+    }
+
+    // findAllById returns rows in no particular order
+    private List<Photo> findAllInOrder(List<Long> ids) {
+        Map<Long, Photo> photos = new HashMap<>();
+        photoRepository.findAllById(ids).forEach(p -> photos.put(p.getId(), p));
+        return ids.stream().map(photos::get).filter(Objects::nonNull).toList();
+    }
+
     private String removeExtension(String filename) {
         if (filename == null) return "image";
         int dot = filename.lastIndexOf('.');
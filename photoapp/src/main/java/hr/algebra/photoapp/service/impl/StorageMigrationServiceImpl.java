@@ -0,0 +1,196 @@
+package hr.algebra.photoapp.service.impl;
+
+import hr.algebra.photoapp.model.Photo;
+import hr.algebra.photoapp.model.PhotoStatus;
+import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.service.StorageMigrationService;
+import hr.algebra.photoapp.service.storage.PhotoStorageStrategy;
+import hr.algebra.photoapp.util.StorageLayout;
+import hr.algebra.photoapp.util.TilePyramid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Service Layer Pattern
+// Moves a photo's original (and the one the optimizer replaced), derivatives and tiles from the flat uploads/<user>/ directory into the sharded
+// layout without taking it offline: the files are linked under their new names, the row is switched over
+// in one transaction (only if nothing changed it meanwhile), and the old names are deleted last.
+// Progress is the filenames themselves, so an interrupted run simply carries on after a restart.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageMigrationServiceImpl implements StorageMigrationService {
+
+    private final PhotoRepository photoRepository;
+    private final PhotoStorageStrategy storage;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${photoapp.storage.migrate.enabled:true}")
+    private boolean enabled;
+
+    // highest photo id looked at; photos that could not be moved are retried after the next restart.
+    // Only touched by the scheduler thread.
+    private long migrateCursor;
+
+    private long migrated;
+    private long failed;
+    private long filesMoved;
+
+    @Override
+    public int migrateBatch(int limit) {
+        if (!enabled) {
+            return 0;
+        }
+
+        int moved = 0;
+        for (Long photoId : photoRepository.findUnshardedIds(migrateCursor, PageRequest.of(0, limit))) {
+            migrateCursor = photoId;
+            if (migrate(photoId)) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("remaining", photoRepository.countUnsharded());
+        synchronized (this) {
+            stats.put("migrated", migrated);
+            stats.put("failed", failed);
+            stats.put("filesMoved", filesMoved);
+        }
+        return stats;
+    }
+
+    private boolean migrate(Long photoId) {
+        Move move = transactionTemplate.execute(status -> photoRepository.findById(photoId)
+                .filter(photo -> !StorageLayout.isSharded(photo.getFilename()))
+                .filter(photo -> photo.getStatus() != PhotoStatus.PENDING
+                        && photo.getStatus() != PhotoStatus.PROCESSING)
+                .map(this::plan)
+                .orElse(null));
+        if (move == null) {
+            return false;
+        }
+
+        List<String> linked = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> file : move.files().entrySet()) {
+                storage.link(file.getKey(), move.username(), StorageLayout.nameOf(file.getValue(), move.username()));
+                linked.add(file.getValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to move photo {} into the sharded layout: {}", photoId, e.getMessage());
+            linked.forEach(this::deleteQuietly);
+            synchronized (this) {
+                failed++;
+            }
+            return false;
+        }
+
+        Boolean switched = transactionTemplate.execute(status -> switchOver(photoId, move));
+        if (!Boolean.TRUE.equals(switched)) {
+            // deleted, optimized, purged or reprocessed meanwhile; planned again after the next restart
+            linked.forEach(this::deleteQuietly);
+            return false;
+        }
+
+        // readers that opened the old file keep their handle; only lookups made before the switch miss
+        move.files().keySet().forEach(this::deleteQuietly);
+        synchronized (this) {
+            migrated++;
+            filesMoved += move.files().size();
+        }
+        return true;
+    }
+
+    // Old path -> new path for every file of the photo, named the way uploads name them
+    private Move plan(Photo photo) {
+        String username = photo.getOwner().getUsername();
+        String filename = StorageLayout.nameFor(photo.getId(), photo.getFilename());
+        String base = filename.substring(0, filename.length() - extensionLength(filename));
+
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put(photo.getFilename(), StorageLayout.path(username, filename));
+
+        String replacedOriginal = null;
+        if (photo.getReplacedOriginal() != null) {
+            String extension = photo.getReplacedOriginal().substring(
+                    photo.getReplacedOriginal().length() - extensionLength(photo.getReplacedOriginal()));
+            replacedOriginal = StorageLayout.path(username, base + ".orig" + extension);
+            files.put(photo.getReplacedOriginal(), replacedOriginal);
+        }
+
+        Map<Integer, String> derivatives = new HashMap<>();
+        for (Map.Entry<Integer, String> derivative : photo.getDerivatives().entrySet()) {
+            String path = StorageLayout.path(username, base + ".w" + derivative.getKey() + ".jpg");
+            files.put(derivative.getValue(), path);
+            derivatives.put(derivative.getKey(), path);
+        }
+
+        String tilesPath = null;
+        if (photo.getTilesPath() != null) {
+            tilesPath = StorageLayout.path(username, base + "_files");
+            TilePyramid pyramid = TilePyramid.forStored(photo.getWidth(), photo.getHeight(), photo.getOrientation());
+            for (String tile : pyramid.tilePaths(photo.getTilesPath())) {
+                files.put(tile, tilesPath + tile.substring(photo.getTilesPath().length()));
+            }
+        }
+
+        return new Move(username, photo.getFilename(), photo.getReplacedOriginal(), Map.copyOf(photo.getDerivatives()),
+                photo.getTilesPath(), files, StorageLayout.path(username, filename), replacedOriginal, derivatives,
+                tilesPath);
+    }
+
+    // false when the row no longer matches what was linked
+    private boolean switchOver(Long photoId, Move move) {
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null
+                || !move.oldFilename().equals(photo.getFilename())
+                || !Objects.equals(move.oldReplacedOriginal(), photo.getReplacedOriginal())
+                || !move.oldDerivatives().equals(photo.getDerivatives())
+                || !Objects.equals(move.oldTilesPath(), photo.getTilesPath())) {
+            return false;
+        }
+
+        photo.setFilename(move.filename());
+        photo.setReplacedOriginal(move.replacedOriginal());
+        photo.getDerivatives().clear();
+        photo.getDerivatives().putAll(move.derivatives());
+        photo.setTilesPath(move.tilesPath());
+        return true;
+    }
+
+    private int extensionLength(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot > filename.lastIndexOf('/') ? filename.length() - dot : 0;
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            storage.delete(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record Move(String username, String oldFilename, String oldReplacedOriginal,
+                        Map<Integer, String> oldDerivatives, String oldTilesPath, Map<String, String> files,
+                        String filename, String replacedOriginal, Map<Integer, String> derivatives,
+                        String tilesPath) {
+    }
+}
@@ -0,0 +1,482 @@
+package hr.algebra.photoapp.service.impl;
+
+import hr.algebra.photoapp.model.Photo;
+import hr.algebra.photoapp.model.PhotoStatus;
+import hr.algebra.photoapp.model.User;
+import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.repository.UserRepository;
+import hr.algebra.photoapp.service.StorageOptimizationService;
+import hr.algebra.photoapp.service.image.DecodeMemoryBudget;
+import hr.algebra.photoapp.service.image.TransformedPhotoCache;
+import hr.algebra.photoapp.service.image.UploadWorkerPool;
+import hr.algebra.photoapp.service.storage.PhotoStorageStrategy;
+import hr.algebra.photoapp.util.ContentHash;
+import hr.algebra.photoapp.util.ImageInfo;
+import hr.algebra.photoapp.util.ImageProcessor;
+import hr.algebra.photoapp.util.ImageSimilarity;
+import hr.algebra.photoapp.util.JpegSegments;
+import hr.algebra.photoapp.util.StorageLayout;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Service Layer Pattern + Producer/Consumer Pattern (shares the upload worker pool)
+// Re-encodes stored originals: JPEGs at the lowest quality whose SSIM against the original stays above
+// the threshold (binary search), PNG and BMP losslessly as PNG at the strongest compression. The new file
+// is kept only when it saves enough. JPEGs keep their Exif, XMP and ICC segments and stored orientation;
+// the replaced original stays in storage for keep-originals-days (or goes at once with delete-originals),
+// and the owner's upload total shrinks by the difference only when it is deleted.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StorageOptimizationServiceImpl implements StorageOptimizationService {
+
+    private final PhotoRepository photoRepository;
+    private final UserRepository userRepository;
+    private final PhotoStorageStrategy storage;
+    private final DecodeMemoryBudget decodeBudget;
+    private final UploadWorkerPool workers;
+    private final TransactionTemplate transactionTemplate;
+    private final TransformedPhotoCache transformCache;
+
+    @Value("${photoapp.optimize.enabled:false}")
+    private boolean enabled;
+    @Value("${photoapp.optimize.on-upload:false}")
+    private boolean onUpload;
+    // photos uploaded before the optimizer was turned on, oldest first
+    @Value("${photoapp.optimize.backfill:false}")
+    private boolean backfill;
+    // otherwise the replaced original is kept next to the new file
+    @Value("${photoapp.optimize.delete-originals:false}")
+    private boolean deleteOriginals;
+    // how long a kept original stays, 0 keeps it until the photo is deleted
+    @Value("${photoapp.optimize.keep-originals-days:7}")
+    private int keepOriginalsDays;
+    @Value("${photoapp.optimize.min-ssim:0.99}")
+    private double minSsim;
+    @Value("${photoapp.optimize.min-quality:70}")
+    private int minQuality;
+    @Value("${photoapp.optimize.max-quality:92}")
+    private int maxQuality;
+    // fraction of the original the new file has to save to replace it
+    @Value("${photoapp.optimize.min-savings:0.1}")
+    private double minSavings;
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    // photos turned away by a busy decode budget, queued again before the cursor moves on
+    private final Set<Long> deferred = ConcurrentHashMap.newKeySet();
+
+    // highest photo id the backfill has queued; only touched by the scheduler thread
+    private long optimizeCursor;
+
+    private long replaced;
+    private long kept;
+    private long failed;
+    private long bytesSaved;
+    private long totalMillis;
+
+    @Override
+    public void submitUpload(Long photoId) {
+        if (enabled && onUpload) {
+            submit(photoId);
+        }
+    }
+
+    @Override
+    public int optimizeUnoptimized(int limit) {
+        if (!enabled) {
+            return 0;
+        }
+
+        int queued = 0;
+        Iterator<Long> retries = deferred.iterator();
+        while (queued < limit && retries.hasNext()) {
+            Long photoId = retries.next();
+            if (!submit(photoId)) {
+                return queued;
+            }
+            retries.remove();
+            queued++;
+        }
+        if (!backfill || queued >= limit) {
+            return queued;
+        }
+
+        List<Long> photoIds = photoRepository.findUnoptimizedIds(optimizeCursor, PageRequest.of(0, limit - queued));
+        if (photoIds.isEmpty()) {
+            // starts over next run, for photos that were still being processed when the cursor passed them
+            optimizeCursor = 0;
+        }
+        for (Long photoId : photoIds) {
+            // a full worker pool leaves the cursor where it was, so the photo is tried again next run
+            if (!submit(photoId)) {
+                break;
+            }
+            optimizeCursor = photoId;
+            queued++;
+        }
+        return queued;
+    }
+
+    @Override
+    public int purgeReplacedOriginals(int limit) {
+        if (keepOriginalsDays <= 0) {
+            return 0;
+        }
+
+        int purged = 0;
+        LocalDateTime before = LocalDateTime.now().minusDays(keepOriginalsDays);
+        for (Long photoId : photoRepository.findReplacedOriginalIds(before, PageRequest.of(0, limit))) {
+            String original = transactionTemplate.execute(status -> forgetOriginal(photoId));
+            if (original != null) {
+                // only once nothing refers to it; a failed delete leaves an orphan, not a broken photo
+                deleteQuietly(original);
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("deleteOriginals", deleteOriginals);
+        stats.put("keepOriginalsDays", keepOriginalsDays);
+        stats.put("minSsim", minSsim);
+        stats.put("deferred", deferred.size());
+        stats.put("optimizedPhotos", photoRepository.countByOptimizedAtIsNotNull());
+        // saved by re-encodes, but still taken up by the kept originals
+        stats.put("bytesPendingDeletion", photoRepository.sumBytesPendingDeletion());
+        synchronized (this) {
+            stats.put("replaced", replaced);
+            stats.put("kept", kept);
+            stats.put("failed", failed);
+            stats.put("bytesSaved", bytesSaved);
+            long runs = replaced + kept;
+            stats.put("averageMillis", runs > 0 ? totalMillis / runs : 0);
+        }
+
+        List<Map<String, Object>> users = new ArrayList<>();
+        for (Object[] row : photoRepository.sumBytesSavedByOwner()) {
+            Map<String, Object> user = new LinkedHashMap<>();
+            user.put("username", row[0]);
+            user.put("photos", row[1]);
+            user.put("bytesSaved", row[2]);
+            users.add(user);
+        }
+        stats.put("users", users);
+        return stats;
+    }
+
+    private boolean submit(Long photoId) {
+        if (!inFlight.add(photoId)) {
+            return true;
+        }
+
+        boolean queued = workers.trySubmit(() -> {
+            try {
+                optimize(photoId);
+            } finally {
+                inFlight.remove(photoId);
+            }
+        });
+        if (!queued) {
+            inFlight.remove(photoId);
+        }
+        return queued;
+    }
+
+    private void optimize(Long photoId) {
+        Target target = transactionTemplate.execute(status -> photoRepository.findById(photoId)
+                .filter(photo -> photo.getOptimizedAt() == null)
+                .filter(photo -> photo.getStatus() == null || photo.getStatus() == PhotoStatus.READY)
+                .map(photo -> new Target(photo.getFilename(), photo.getOwner().getUsername()))
+                .orElse(null));
+        if (target == null) {
+            return;
+        }
+
+        long started = System.currentTimeMillis();
+        Candidate candidate = null;
+        long originalSize = 0;
+        boolean failedRun = false;
+        try {
+            byte[] original = storage.load(target.path());
+            originalSize = original.length;
+            candidate = smallestEncoding(original);
+        } catch (ResponseStatusException e) {
+            if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE) {
+                // busy decoding something else, queued again by a later run
+                deferred.add(photoId);
+                return;
+            }
+            recordFailure(photoId, e);
+            failedRun = true;
+        } catch (IOException | RuntimeException e) {
+            recordFailure(photoId, e);
+            failedRun = true;
+        }
+
+        // failures are marked as well, so a broken file is not retried forever
+        if (candidate == null || candidate.bytes().length > originalSize * (1 - minSavings)) {
+            boolean keptOriginal = !failedRun;
+            transactionTemplate.executeWithoutResult(status -> photoRepository.findById(photoId).ifPresent(photo -> {
+                photo.setOptimizedAt(LocalDateTime.now());
+                photo.setBytesSaved(0L);
+            }));
+            synchronized (this) {
+                if (keptOriginal) {
+                    kept++;
+                    totalMillis += System.currentTimeMillis() - started;
+                }
+            }
+            return;
+        }
+
+        Candidate smaller = candidate;
+        try {
+            String newPath = storeCandidate(target, smaller);
+            Long saved = transactionTemplate.execute(status -> replace(photoId, target.path(), newPath, smaller));
+            if (saved == null) {
+                // deleted or changed meanwhile, nothing refers to the new file
+                deleteQuietly(newPath);
+                return;
+            }
+
+            if (deleteOriginals && !newPath.equals(target.path())) {
+                deleteQuietly(target.path());
+            }
+            transformCache.invalidate(photoId);
+            log.info("Optimized photo {}: {} -> {} bytes ({})", photoId, originalSize,
+                    smaller.bytes().length, smaller.description());
+            synchronized (this) {
+                replaced++;
+                bytesSaved += saved;
+                totalMillis += System.currentTimeMillis() - started;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to store optimized photo {}: {}", photoId, e.getMessage());
+        }
+    }
+
+    // Smallest acceptable encoding of the stored pixels, null when the format is left alone
+    private Candidate smallestEncoding(byte[] original) throws IOException {
+        ImageInfo info = ImageProcessor.probe(original);
+        if (info == null) {
+            return null;
+        }
+        boolean jpeg = "image/jpeg".equals(info.getMimeType());
+        boolean lossless = "image/png".equals(info.getMimeType()) || "image/bmp".equals(info.getMimeType());
+        if (!jpeg && !lossless) {
+            return null;
+        }
+
+        long pixels = (long) info.getWidth() * info.getHeight() * Integer.BYTES;
+        // the reference, plus luma of the reference, a decoded candidate and its luma (or one reduced copy)
+        long working = jpeg ? 3 * pixels : pixels;
+        DecodeMemoryBudget.Reservation reservation = decodeBudget.reserve(
+                DecodeMemoryBudget.rasterBytes(new Dimension(info.getWidth(), info.getHeight()),
+                        ImageInfo.ORIENTATION_NORMAL) + working);
+        try {
+            if (!jpeg) {
+                BufferedImage image = ImageProcessor.loadImage(original);
+                return image != null ? smallestPng(image) : null;
+            }
+
+            // not turned upright and not converted to sRGB, so the copied Exif orientation and ICC profile
+            // still describe the re-encoded pixels
+            BufferedImage image = ImageProcessor.loadImage(JpegSegments.withoutMetadata(original));
+            if (image == null) {
+                return null;
+            }
+            Candidate best = smallestJpeg(image);
+            return best != null ? best.withBytes(JpegSegments.insert(best.bytes(), JpegSegments.metadata(original)))
+                    : null;
+        } finally {
+            reservation.close();
+        }
+    }
+
+    // Lowest quality within the SSIM threshold; SSIM grows with quality, so a binary search finds it
+    private Candidate smallestJpeg(BufferedImage image) throws IOException {
+        int[] reference = ImageSimilarity.luma(image);
+        Candidate best = null;
+        int low = minQuality;
+        int high = maxQuality;
+        while (low <= high) {
+            int quality = (low + high) / 2;
+            byte[] encoded = ImageProcessor.convertFormat(image, "jpg", quality);
+            BufferedImage decoded = ImageProcessor.loadImage(encoded);
+            double ssim = decoded != null
+                    ? ImageSimilarity.ssim(reference, ImageSimilarity.luma(decoded), image.getWidth(), image.getHeight())
+                    : 0;
+            if (ssim >= minSsim) {
+                best = new Candidate(encoded, "jpg", "image/jpeg", image.getWidth(), image.getHeight(),
+                        String.format("quality %d, SSIM %.4f", quality, ssim));
+                high = quality - 1;
+            } else {
+                low = quality + 1;
+            }
+        }
+        return best;
+    }
+
+    // Same pixels: alpha dropped when every pixel is opaque, gray images written as one channel
+    private Candidate smallestPng(BufferedImage image) throws IOException {
+        if (image.getColorModel().getPixelSize() > 32
+                || image.getColorModel().getComponentSize(0) > 8) {
+            // 16-bit channels would lose precision in an 8-bit copy
+            return null;
+        }
+
+        BufferedImage reduced = reduce(image);
+        return new Candidate(ImageProcessor.encodePngCompact(reduced), "png", "image/png",
+                image.getWidth(), image.getHeight(),
+                reduced != image ? "lossless, reduced to type " + reduced.getType() : "lossless");
+    }
+
+    private BufferedImage reduce(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_4BYTE_ABGR
+                && type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_3BYTE_BGR) {
+            // palette and gray images are already compact
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean opaque = true;
+        boolean gray = true;
+        int[] row = new int[width];
+        for (int y = 0; y < height && (opaque || gray); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int rgb : row) {
+                opaque &= (rgb >>> 24) == 0xFF;
+                int r = (rgb >> 16) & 0xFF;
+                gray &= r == ((rgb >> 8) & 0xFF) && r == (rgb & 0xFF);
+            }
+        }
+
+        if (opaque && gray) {
+            BufferedImage reduced = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    row[x] &= 0xFF;
+                }
+                reduced.getRaster().setSamples(0, y, width, 1, 0, row);
+            }
+            return reduced;
+        }
+        if (opaque && (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+            BufferedImage reduced = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                reduced.setRGB(0, y, width, 1, row, 0, width);
+            }
+            return reduced;
+        }
+        return image;
+    }
+
+    // next to the original, which stays until the database points at the new file
+    private String storeCandidate(Target target, Candidate candidate) throws IOException {
+        String name = StorageLayout.nameOf(target.path(), target.username());
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String filename = base + "." + candidate.format();
+        String newPath = StorageLayout.path(target.username(), filename);
+        for (int n = 1; storage.exists(newPath); n++) {
+            filename = base + "-" + n + "." + candidate.format();
+            newPath = StorageLayout.path(target.username(), filename);
+        }
+        storage.store(target.username(), filename, candidate.bytes());
+        return newPath;
+    }
+
+    // bytes saved, null when the photo is gone or no longer stored at the path that was optimized
+    private Long replace(Long photoId, String path, String newPath, Candidate candidate) {
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null || !path.equals(photo.getFilename())) {
+            return null;
+        }
+
+        long saved = photo.getSize() - candidate.bytes().length;
+        photo.setFilename(newPath);
+        photo.setContentType(candidate.contentType());
+        photo.setSize(candidate.bytes().length);
+        photo.setContentHash(ContentHash.sha256(candidate.bytes()));
+        photo.setWidth(candidate.width());
+        photo.setHeight(candidate.height());
+        photo.setOptimizedAt(LocalDateTime.now());
+        photo.setBytesSaved(saved);
+
+        if (deleteOriginals) {
+            User owner = photo.getOwner();
+            owner.addUploadSize(-saved);
+            userRepository.save(owner);
+        } else if (!newPath.equals(path)) {
+            photo.setReplacedOriginal(path);
+        }
+        return saved;
+    }
+
+    // the kept original's path, null when it is already gone; the owner's total drops by what it saved
+    private String forgetOriginal(Long photoId) {
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null || photo.getReplacedOriginal() == null) {
+            return null;
+        }
+
+        String original = photo.getReplacedOriginal();
+        photo.setReplacedOriginal(null);
+        User owner = photo.getOwner();
+        owner.addUploadSize(-photo.getBytesSaved());
+        userRepository.save(owner);
+        return original;
+    }
+
+    private void recordFailure(Long photoId, Exception e) {
+        log.warn("Failed to optimize photo {}: {}", photoId, e.getMessage());
+        synchronized (this) {
+            failed++;
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            storage.delete(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record Target(String path, String username) {
+    }
+
+    private record Candidate(byte[] bytes, String format, String contentType, int width, int height,
+                             String description) {
+
+        Candidate withBytes(byte[] bytes) {
+            return new Candidate(bytes, format, contentType, width, height, description);
+        }
+    }
+}
@@ -0,0 +1,659 @@
+package hr.algebra.photoapp.service.impl;
+
+import hr.algebra.photoapp.model.Photo;
+import hr.algebra.photoapp.model.PhotoStatus;
+import hr.algebra.photoapp.model.UploadJob;
+import hr.algebra.photoapp.model.User;
+import hr.algebra.photoapp.repository.PhotoRepository;
+import hr.algebra.photoapp.repository.UploadJobRepository;
+import hr.algebra.photoapp.repository.UserRepository;
+import hr.algebra.photoapp.service.StorageOptimizationService;
+import hr.algebra.photoapp.service.UploadProcessingService;
+import hr.algebra.photoapp.service.image.ColorIndex;
+import hr.algebra.photoapp.service.image.DecodeMemoryBudget;
+import hr.algebra.photoapp.service.image.SimilarPhotoIndex;
+import hr.algebra.photoapp.service.image.UploadWorkerPool;
+import hr.algebra.photoapp.service.storage.PhotoStorageStrategy;
+import hr.algebra.photoapp.util.ColorSignature;
+import hr.algebra.photoapp.util.ContentHash;
+import hr.algebra.photoapp.util.ImageInfo;
+import hr.algebra.photoapp.util.ImageProcessor;
+import hr.algebra.photoapp.util.ImageResampler;
+import hr.algebra.photoapp.util.PerceptualHash;
+import hr.algebra.photoapp.util.StorageLayout;
+import hr.algebra.photoapp.util.TilePyramid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.IIOException;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Service Layer Pattern + Producer/Consumer Pattern (bounded worker pool)
+// Runs the image work of an upload after the request has returned: conversion, then derivatives
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadProcessingServiceImpl implements UploadProcessingService {
+
+    private final PhotoRepository photoRepository;
+    private final UploadJobRepository uploadJobRepository;
+    private final UserRepository userRepository;
+    private final PhotoStorageStrategy storage;
+    private final DecodeMemoryBudget decodeBudget;
+    private final UploadWorkerPool workers;
+    private final TransactionTemplate transactionTemplate;
+    private final SimilarPhotoIndex similarIndex;
+    private final ColorIndex colorIndex;
+    private final StorageOptimizationService storageOptimizer;
+
+    @Value("${photoapp.tiles.min-edge:4096}")
+    private int tilesMinEdge;
+
+    // decoded pixels per tile block; bounds the memory of a pyramid whatever the size of the photo
+    @Value("${photoapp.tiles.block-pixels:8388608}")
+    private long tilesBlockPixels;
+
+    @Value("${photoapp.upload.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${photoapp.upload.retry-backoff-ms:30000}")
+    private long retryBackoffMillis;
+
+    // photos queued or running on this node, so the sweeper never queues one twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // highest photo id the hash backfill has queued; only touched by the scheduler thread
+    private long hashCursor;
+
+    @Override
+    public void submitAfterCommit(Long photoId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(photoId);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(photoId);
+            }
+        });
+    }
+
+    @Override
+    public void submit(Long photoId) {
+        if (!inFlight.add(photoId)) {
+            return;
+        }
+
+        boolean queued = workers.trySubmit(() -> {
+            try {
+                process(photoId);
+            } finally {
+                inFlight.remove(photoId);
+            }
+        });
+
+        if (!queued) {
+            inFlight.remove(photoId);
+            log.warn("Upload queue is full, photo {} stays pending until the next sweep", photoId);
+        }
+    }
+
+    @Override
+    public int requeueUnfinished() {
+        int queued = 0;
+        for (UploadJob job : uploadJobRepository.findDue(LocalDateTime.now())) {
+            if (!inFlight.contains(job.getPhotoId())) {
+                submit(job.getPhotoId());
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    @Override
+    public int hashUnindexed(int limit) {
+        int queued = 0;
+        for (Long photoId : photoRepository.findUnhashedIds(hashCursor, PageRequest.of(0, limit))) {
+            if (!inFlight.add(photoId)) {
+                continue;
+            }
+            // photos that cannot be hashed are skipped until the next restart instead of blocking the sweep
+            hashCursor = photoId;
+            boolean accepted = workers.trySubmit(() -> {
+                try {
+                    hashStored(photoId);
+                } finally {
+                    inFlight.remove(photoId);
+                }
+            });
+            if (!accepted) {
+                inFlight.remove(photoId);
+                break;
+            }
+            queued++;
+        }
+        return queued;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>(workers.getStatistics());
+        stats.put("pendingJobs", uploadJobRepository.count());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+
+    private void process(Long photoId) {
+        // short transaction: claim the job and copy what the worker needs
+        Work work = transactionTemplate.execute(status -> claim(photoId));
+        if (work == null) {
+            return;
+        }
+
+        Result result;
+        try {
+            result = run(work);
+        } catch (Exception e) {
+            // retryable failures keep the job and wait out a backoff until the attempts are used up
+            boolean retrying = retryable(e)
+                    && Boolean.TRUE.equals(transactionTemplate.execute(status -> retry(photoId, e)));
+            if (retrying) {
+                log.info("Processing of photo {} failed, retrying later: {}", photoId, e.getMessage());
+            } else {
+                log.warn("Processing of photo {} failed: {}", photoId, e.getMessage());
+                transactionTemplate.executeWithoutResult(status -> fail(photoId, e));
+            }
+            return;
+        }
+
+        Boolean saved = transactionTemplate.execute(status -> complete(photoId, work, result));
+        if (!Boolean.TRUE.equals(saved)) {
+            // deleted while it was being processed, nothing refers to the new files
+            deleteQuietly(result.path());
+            result.derivatives().values().forEach(this::deleteQuietly);
+            if (result.tilesPath() != null) {
+                TilePyramid.forStored(result.width(), result.height(), result.orientation())
+                        .tilePaths(result.tilesPath()).forEach(this::deleteQuietly);
+            }
+        } else {
+            if (result.fingerprint() != null) {
+                similarIndex.add(photoId, work.ownerId(), result.fingerprint().hash());
+                colorIndex.add(photoId, result.fingerprint().colors().getHistogram());
+            }
+            storageOptimizer.submitUpload(photoId);
+        }
+    }
+
+    // Photos processed before hashing or colour signatures existed; their files are already final
+    private void hashStored(Long photoId) {
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null) {
+            return;
+        }
+
+        Fingerprint computed = null;
+        try {
+            byte[] fileBytes = storage.load(photo.getFilename());
+            ImageInfo info = ImageProcessor.probe(fileBytes);
+            if (info != null) {
+                computed = fingerprint(fileBytes, info, null, photo.getDerivatives());
+            }
+        } catch (IOException e) {
+            log.warn("Failed to hash photo {}: {}", photoId, e.getMessage());
+        }
+        if (computed == null) {
+            return;
+        }
+
+        Fingerprint fingerprint = computed;
+        Long ownerId = transactionTemplate.execute(status -> photoRepository.findById(photoId)
+                .map(p -> {
+                    p.setPerceptualHash(fingerprint.hash());
+                    p.setColorHistogram(fingerprint.colors().getHistogram());
+                    p.setPalette(fingerprint.colors().getPaletteHex());
+                    return p.getOwner().getId();
+                })
+                .orElse(null));
+        if (ownerId != null) {
+            similarIndex.add(photoId, ownerId, fingerprint.hash());
+            colorIndex.add(photoId, fingerprint.colors().getHistogram());
+        }
+    }
+
+    private Work claim(Long photoId) {
+        UploadJob job = uploadJobRepository.findByPhotoId(photoId).orElse(null);
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (job == null || photo == null) {
+            if (job != null) {
+                uploadJobRepository.delete(job);
+            }
+            return null;
+        }
+        if (job.getNextAttemptAt() != null && job.getNextAttemptAt().isAfter(LocalDateTime.now())) {
+            return null;
+        }
+
+        job.setAttempts(job.getAttempts() + 1);
+        job.setNextAttemptAt(null);
+        photo.setStatus(PhotoStatus.PROCESSING);
+        return new Work(photo.getOwner().getId(), photo.getOwner().getUsername(), photo.getFilename(), photo.getSize(),
+                job.getFormat(), job.getResizeWidth(), job.getResizeHeight());
+    }
+
+    private Boolean complete(Long photoId, Work work, Result result) {
+        uploadJobRepository.deleteByPhotoId(photoId);
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null) {
+            return false;
+        }
+
+        photo.setFilename(result.path());
+        photo.setContentType(result.contentType());
+        photo.setSize(result.size());
+        photo.setWidth(result.width());
+        photo.setHeight(result.height());
+        photo.setOrientation(result.orientation());
+        photo.getDerivatives().clear();
+        photo.getDerivatives().putAll(result.derivatives());
+        photo.setStatus(PhotoStatus.READY);
+        photo.setStatusMessage(null);
+        Fingerprint fingerprint = result.fingerprint();
+        photo.setPerceptualHash(fingerprint != null ? fingerprint.hash() : null);
+        photo.setColorHistogram(fingerprint != null ? fingerprint.colors().getHistogram() : null);
+        photo.setPalette(fingerprint != null ? fingerprint.colors().getPaletteHex() : null);
+        photo.setTilesPath(result.tilesPath());
+        if (result.contentHash() != null) {
+            // the converted file replaced the upload
+            photo.setContentHash(result.contentHash());
+        }
+
+        // statistics were counted with the raw upload size
+        if (result.size() != work.rawSize()) {
+            User owner = photo.getOwner();
+            owner.addUploadSize(result.size() - work.rawSize());
+            userRepository.save(owner);
+        }
+        return true;
+    }
+
+    // Keeps the job for another attempt after an exponential backoff; false once the attempts are used up
+    private Boolean retry(Long photoId, Exception e) {
+        UploadJob job = uploadJobRepository.findByPhotoId(photoId).orElse(null);
+        if (job == null || job.getAttempts() >= maxAttempts) {
+            return false;
+        }
+
+        long backoff = retryBackoffMillis << Math.min(job.getAttempts() - 1, 10);
+        job.setNextAttemptAt(LocalDateTime.now().plusNanos(backoff * 1_000_000));
+        photoRepository.findById(photoId).ifPresent(photo -> {
+            photo.setStatus(PhotoStatus.PENDING);
+            photo.setStatusMessage(statusMessage(e));
+        });
+        return true;
+    }
+
+    private void fail(Long photoId, Exception e) {
+        uploadJobRepository.deleteByPhotoId(photoId);
+        photoRepository.findById(photoId).ifPresent(photo -> {
+            photo.setStatus(PhotoStatus.FAILED);
+            photo.setStatusMessage(statusMessage(e));
+        });
+    }
+
+    // the decode budget being full or storage hiccups can pass; a file that is not an image, is corrupt or
+    // too large cannot, so it fails on the first attempt
+    private static boolean retryable(Exception e) {
+        if (e instanceof ResponseStatusException status) {
+            return status.getStatusCode().isSameCodeAs(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return e instanceof IOException && !(e instanceof IIOException);
+    }
+
+    // truncated or corrupt image data: decoding it again gives the same error
+    private static ResponseStatusException undecodable(IOException e) {
+        return new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+                "File could not be decoded: " + e.getMessage(), e);
+    }
+
+    private static String statusMessage(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+
+    // The image work itself, outside any transaction
+    private Result run(Work work) throws IOException {
+        byte[] fileBytes = storage.load(work.path());
+
+        // Header only; pixels are decoded just for a transformation or derivatives
+        ImageInfo info;
+        try {
+            info = ImageProcessor.probe(fileBytes);
+        } catch (IOException e) {
+            throw undecodable(e);
+        }
+        if (info == null) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "File is not a supported image");
+        }
+
+        String path = work.path();
+        String filename = StorageLayout.nameOf(path, work.username());
+        int width = info.getWidth();
+        int height = info.getHeight();
+        int orientation = info.getOrientation();
+        String contentType = info.getMimeType();
+        BufferedImage image = null;
+        boolean transform = work.format() != null || work.resizeWidth() != null || work.resizeHeight() != null;
+        Map<Integer, String> derivatives;
+        String tilesPath;
+
+        // the decoded raster, a rotated copy and the resized output all count against the budget
+        DecodeMemoryBudget.Reservation reservation = transform
+                ? decodeBudget.reserveDecode(info, work.resizeWidth(), work.resizeHeight(), orientation, true)
+                : null;
+        try {
+
+            // Apply image processing if requested
+            if (transform) {
+                // re-encoding drops the EXIF segment, so the pixels are turned upright first
+                try {
+                    image = ImageProcessor.loadUpright(fileBytes, work.resizeWidth(), work.resizeHeight(), orientation);
+                } catch (IOException e) {
+                    throw undecodable(e);
+                }
+                if (image == null) {
+                    throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "File is not a supported image");
+                }
+                orientation = ImageInfo.ORIENTATION_NORMAL;
+
+                if (work.resizeWidth() != null || work.resizeHeight() != null) {
+                    int w = work.resizeWidth() != null ? work.resizeWidth() : 0;
+                    int h = work.resizeHeight() != null ? work.resizeHeight() : 0;
+                    image = ImageProcessor.resize(image, w, h);
+                }
+
+                String outputFormat = work.format() != null ? work.format() : "jpg";
+                fileBytes = ImageProcessor.convertFormat(image, outputFormat);
+
+                width = image.getWidth();
+                height = image.getHeight();
+                contentType = ImageProcessor.mimeType(outputFormat);
+
+                // the converted file replaces the raw upload, named after it so batch uploads never collide
+                String base = removeExtension(filename);
+                filename = base + "." + outputFormat;
+                String convertedPath = StorageLayout.path(work.username(), filename);
+                for (int n = 1; !convertedPath.equals(path) && storage.exists(convertedPath); n++) {
+                    filename = base + "-" + n + "." + outputFormat;
+                    convertedPath = StorageLayout.path(work.username(), filename);
+                }
+                storage.store(work.username(), filename, fileBytes);
+                if (!convertedPath.equals(path)) {
+                    storage.delete(path);
+                    path = convertedPath;
+                }
+            }
+
+            derivatives = storeDerivatives(work.username(), filename, fileBytes, info, image);
+            tilesPath = storeTiles(work.username(), filename, fileBytes, info, image);
+        } finally {
+            if (reservation != null) {
+                reservation.close();
+            }
+        }
+
+        Fingerprint fingerprint = fingerprint(fileBytes, info, image, derivatives);
+        return new Result(path, contentType, fileBytes.length, width, height, orientation, derivatives, fingerprint,
+                transform ? ContentHash.sha256(fileBytes) : null, tilesPath);
+    }
+
+    // Downscaled, upright JPEG copies for galleries, each scaled from the next larger one.
+    // Without an already decoded image the original is decoded subsampled, close to the largest size.
+    private Map<Integer, String> storeDerivatives(String username, String filename, byte[] fileBytes,
+                                                  ImageInfo info, BufferedImage image) {
+        Map<Integer, String> derivatives = new HashMap<>();
+        int longEdge = image != null ? Math.max(image.getWidth(), image.getHeight()) : info.getLongEdge();
+
+        BufferedImage source = image;
+        DecodeMemoryBudget.Reservation reservation = null;
+        try {
+            for (int size : ImageProcessor.DERIVATIVE_SIZES) {
+                if (size >= longEdge) {
+                    continue;
+                }
+
+                try {
+                    if (source == null) {
+                        boolean landscape = info.getWidth() >= info.getHeight();
+                        Integer targetWidth = landscape ? size : null;
+                        Integer targetHeight = landscape ? null : size;
+                        reservation = decodeBudget.reserveDecode(info, targetWidth, targetHeight,
+                                info.getOrientation(), true);
+                        source = ImageProcessor.loadUpright(fileBytes, targetWidth, targetHeight, info.getOrientation());
+                        if (source == null) {
+                            throw new IOException("image could not be decoded");
+                        }
+                    }
+
+                    source = ImageProcessor.resizeToFit(source, size);
+                    String derivativeName = removeExtension(filename) + ".w" + size + ".jpg";
+                    storage.store(username, derivativeName, ImageProcessor.convertFormat(source, "jpg"));
+                    derivatives.put(size, StorageLayout.path(username, derivativeName));
+                } catch (IOException e) {
+                    log.warn("Failed to create {}px derivative for {}: {}", size, filename, e.getMessage());
+                }
+            }
+        } finally {
+            if (reservation != null) {
+                reservation.close();
+            }
+        }
+
+        return derivatives;
+    }
+
+    // Deep-zoom tiles for photos too large to view whole; null when the photo is small enough or the
+    // pyramid could not be built. An already decoded image is cut level by level, each level scaled from
+    // the one above; otherwise every level is cut from blocks of tiles decoded subsampled from the original.
+    private String storeTiles(String username, String filename, byte[] fileBytes,
+                              ImageInfo info, BufferedImage image) {
+        Rectangle bounds = image != null
+                ? new Rectangle(image.getWidth(), image.getHeight())
+                : ImageProcessor.uprightBounds(info, info.getOrientation());
+        if (Math.max(bounds.width, bounds.height) < tilesMinEdge) {
+            return null;
+        }
+
+        TilePyramid pyramid = new TilePyramid(bounds.width, bounds.height);
+        String tilesName = removeExtension(filename) + "_files";
+        String prefix = StorageLayout.path(username, tilesName);
+        try {
+            if (image != null) {
+                storeLevels(username, tilesName, pyramid, image);
+            } else {
+                for (int z = pyramid.getMaxLevel(); z >= 0; z--) {
+                    storeLevelBlocks(username, tilesName, pyramid, z, fileBytes, info, bounds);
+                }
+            }
+            return prefix;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to create zoom tiles for {}: {}", filename, e.getMessage());
+            pyramid.tilePaths(prefix).forEach(this::deleteQuietly);
+            return null;
+        }
+    }
+
+    private void storeLevels(String username, String tilesName, TilePyramid pyramid,
+                             BufferedImage image) throws IOException {
+        // the smaller levels together take a third of the full raster
+        long levelBytes = (long) image.getWidth() * image.getHeight() * Integer.BYTES / 3;
+        DecodeMemoryBudget.Reservation reservation = decodeBudget.reserve(levelBytes);
+        try {
+            BufferedImage level = image;
+            for (int z = pyramid.getMaxLevel(); z >= 0; z--) {
+                storeTileRange(username, tilesName, z, level, 0, 0, pyramid.columns(z), pyramid.rows(z), 0, 0);
+                if (z > 0) {
+                    Dimension next = pyramid.levelSize(z - 1);
+                    level = ImageProcessor.resize(level, next.width, next.height, ImageResampler.Quality.PROGRESSIVE);
+                }
+            }
+        } finally {
+            reservation.close();
+        }
+    }
+
+    // One level in blocks of whole tiles: each block's area of the original is decoded subsampled to about
+    // twice the level's resolution and resized, with a small margin so the resampler leaves no seams
+    private void storeLevelBlocks(String username, String tilesName, TilePyramid pyramid, int z,
+                                  byte[] fileBytes, ImageInfo info, Rectangle bounds) throws IOException {
+        int size = TilePyramid.TILE_SIZE;
+        int margin = 4;
+        int scale = 1 << (pyramid.getMaxLevel() - z);
+        int factor = ImageProcessor.subsamplingFactor(scale, scale, 1, 1);
+        double decodedPerPixel = Math.pow((double) scale / factor, 2);
+        long tilesPerBlock = Math.max(1, (long) (tilesBlockPixels / (decodedPerPixel * size * size)));
+        int blockColumns = (int) Math.min(pyramid.columns(z), tilesPerBlock);
+        int blockRows = (int) Math.min(pyramid.rows(z), Math.max(1, tilesPerBlock / blockColumns));
+        Dimension levelSize = pyramid.levelSize(z);
+
+        for (int row = 0; row < pyramid.rows(z); row += blockRows) {
+            for (int column = 0; column < pyramid.columns(z); column += blockColumns) {
+                // the block in level pixels, widened by the margin, and the part of the original it covers
+                int x0 = Math.max(0, column * size - margin);
+                int y0 = Math.max(0, row * size - margin);
+                int x1 = Math.min(levelSize.width, (column + blockColumns) * size + margin);
+                int y1 = Math.min(levelSize.height, (row + blockRows) * size + margin);
+                Rectangle upright = new Rectangle(x0 * scale, y0 * scale, 0, 0);
+                upright.width = Math.min(bounds.width, x1 * scale) - upright.x;
+                upright.height = Math.min(bounds.height, y1 * scale) - upright.y;
+                Rectangle storedRegion = ImageProcessor.storedRegion(upright, info, info.getOrientation());
+
+                Dimension decoded = ImageProcessor.decodedSize(info, x1 - x0, y1 - y0, info.getOrientation(),
+                        storedRegion);
+                long bytes = DecodeMemoryBudget.rasterBytes(decoded, info.getOrientation())
+                        + (long) (x1 - x0) * (y1 - y0) * Integer.BYTES;
+                DecodeMemoryBudget.Reservation reservation = decodeBudget.reserve(bytes);
+                try {
+                    BufferedImage block = ImageProcessor.loadUpright(fileBytes, x1 - x0, y1 - y0,
+                            info.getOrientation(), storedRegion);
+                    if (block == null) {
+                        throw new IOException("image could not be decoded");
+                    }
+                    if (block.getWidth() != x1 - x0 || block.getHeight() != y1 - y0) {
+                        block = ImageProcessor.resize(block, x1 - x0, y1 - y0);
+                    }
+                    storeTileRange(username, tilesName, z, block, column, row,
+                            Math.min(pyramid.columns(z), column + blockColumns),
+                            Math.min(pyramid.rows(z), row + blockRows), x0, y0);
+                } finally {
+                    reservation.close();
+                }
+            }
+        }
+    }
+
+    // tiles [fromColumn, toColumn) x [fromRow, toRow) of level z, cut from image whose top left corner
+    // sits at (originX, originY) of the level
+    private void storeTileRange(String username, String tilesName, int z, BufferedImage image,
+                                int fromColumn, int fromRow, int toColumn, int toRow,
+                                int originX, int originY) throws IOException {
+        int size = TilePyramid.TILE_SIZE;
+        for (int column = fromColumn; column < toColumn; column++) {
+            for (int row = fromRow; row < toRow; row++) {
+                int x = column * size - originX;
+                int y = row * size - originY;
+                BufferedImage tile = image.getSubimage(x, y,
+                        Math.min(size, image.getWidth() - x), Math.min(size, image.getHeight() - y));
+                storage.store(username, tilesName + "/" + z + "/" + column + "_" + row + "." + TilePyramid.FORMAT,
+                        ImageProcessor.convertFormat(tile, TilePyramid.FORMAT));
+            }
+        }
+    }
+
+    // Perceptual hash and colour signature, from the smallest derivative when there is one so re-uploads
+    // at other sizes hash alike; otherwise from the decoded image or the original decoded subsampled
+    private Fingerprint fingerprint(byte[] fileBytes, ImageInfo info, BufferedImage image,
+                                    Map<Integer, String> derivatives) {
+        try {
+            BufferedImage thumbnail = thumbnail(fileBytes, info, image, derivatives);
+            return thumbnail != null
+                    ? new Fingerprint(PerceptualHash.dHash(thumbnail), ColorSignature.of(thumbnail))
+                    : null;
+        } catch (Exception e) {
+            log.warn("Failed to hash {}: {}", info, e.getMessage());
+            return null;
+        }
+    }
+
+    private BufferedImage thumbnail(byte[] fileBytes, ImageInfo info, BufferedImage image,
+                                    Map<Integer, String> derivatives) throws IOException {
+        if (!derivatives.isEmpty()) {
+            String smallest = derivatives.get(Collections.min(derivatives.keySet()));
+            BufferedImage thumbnail = ImageProcessor.loadImage(storage.load(smallest));
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+        if (image != null) {
+            return image;
+        }
+
+
+        int size = ImageProcessor.DERIVATIVE_SIZES[ImageProcessor.DERIVATIVE_SIZES.length - 1];
+        boolean landscape = info.getWidth() >= info.getHeight();
+        Integer targetWidth = landscape ? Math.min(size, info.getWidth()) : null;
+        Integer targetHeight = landscape ? null : Math.min(size, info.getHeight());
+        DecodeMemoryBudget.Reservation reservation =
+                decodeBudget.reserveDecode(info, targetWidth, targetHeight, info.getOrientation(), false);
+        try {
+            return ImageProcessor.loadUpright(fileBytes, targetWidth, targetHeight, info.getOrientation());
+        } finally {
+            reservation.close();
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            storage.delete(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private String removeExtension(String filename) {
+        if (filename == null) return "image";
+        int dot = filename.lastIndexOf('.');
+        return (dot > 0) ? filename.substring(0, dot) : filename;
+    }
+
+    private record Work(Long ownerId, String username, String path, long rawSize,
+                        String format, Integer resizeWidth, Integer resizeHeight) {
+    }
+
+    private record Result(String path, String contentType, long size, int width, int height,
+                          int orientation, Map<Integer, String> derivatives, Fingerprint fingerprint,
+                          String contentHash, String tilesPath) {
+    }
+
+    private record Fingerprint(long hash, ColorSignature colors) {
+    }
+}
@@ -0,0 +1,260 @@
+package hr.algebra.photoapp.service.storage;
+
+import hr.algebra.photoapp.model.BlobReference;
+import hr.algebra.photoapp.model.StoredBlob;
+import hr.algebra.photoapp.repository.BlobReferenceRepository;
+import hr.algebra.photoapp.repository.StoredBlobRepository;
+import hr.algebra.photoapp.util.ContentHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Strategy Pattern (Concrete Implementation) + Flyweight Pattern (shared blobs)
+// Content-addressed storage: bytes live once under their SHA-256, paths are reference-counted pointers.
+// Enabled with photoapp.storage.strategy=cas; files written before that are still read from uploads/.
+@Service
+@Primary
+@ConditionalOnProperty(name = "photoapp.storage.strategy", havingValue = "cas")
+@Slf4j
+public class ContentAddressedStorageStrategy implements PhotoStorageStrategy {
+
+    // updates of one blob are serialized by its stripe; different blobs proceed in parallel
+    private static final int LOCK_STRIPES = 64;
+
+    private final StoredBlobRepository blobRepository;
+    private final BlobReferenceRepository referenceRepository;
+    private final LocalPhotoStorageStrategy legacy;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ContentAddressedStorageStrategy(StoredBlobRepository blobRepository,
+                                           BlobReferenceRepository referenceRepository,
+                                           LocalPhotoStorageStrategy legacy,
+                                           PlatformTransactionManager transactionManager,
+                                           @Value("${photoapp.storage.blob-dir:blobs}") String directory) throws IOException {
+        this.blobRepository = blobRepository;
+        this.referenceRepository = referenceRepository;
+        this.legacy = legacy;
+        // committed before the stripe lock is released, also when called inside a caller's transaction
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void store(String username, String filename, byte[] data) throws IOException {
+        link(username, filename, ContentHash.sha256(data), data.length, file -> {
+            // temp file + move, so a blob is never visible half-written
+            Path temp = Files.createTempFile(file.getParent(), "tmp-", ".part");
+            Files.write(temp, data);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+    }
+
+    // hashed while it is copied to a temp file, since the blob's name is only known at the end
+    @Override
+    public long store(String username, String filename, InputStream data) throws IOException {
+        Path temp = Files.createTempFile(directory, "tmp-", ".part");
+        try {
+            DigestInputStream digesting = new DigestInputStream(data, ContentHash.newDigest());
+            long size = Files.copy(digesting, temp, StandardCopyOption.REPLACE_EXISTING);
+            String sha256 = ContentHash.hex(digesting.getMessageDigest().digest());
+            link(username, filename, sha256, size,
+                    file -> Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE));
+            return size;
+        } finally {
+            // already moved unless the blob existed
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public byte[] load(String path) throws IOException {
+        BlobReference reference = referenceRepository.findById(normalize(path)).orElse(null);
+        if (reference == null) {
+            return legacy.load(path);
+        }
+        return Files.readAllBytes(blobFile(reference.getSha256()));
+    }
+
+    @Override
+    public StoredContent open(String path) throws IOException {
+        BlobReference reference = referenceRepository.findById(normalize(path)).orElse(null);
+        if (reference == null) {
+            return legacy.open(path);
+        }
+        return StoredContent.ofFile(blobFile(reference.getSha256()));
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        String sha256 = transactionTemplate.execute(status -> referenceRepository.findById(normalize(path))
+                .map(reference -> {
+                    referenceRepository.delete(reference);
+                    return reference.getSha256();
+                })
+                .orElse(null));
+
+        if (sha256 == null) {
+            legacy.delete(path);
+        } else {
+            release(sha256);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return referenceRepository.existsById(normalize(path)) || legacy.exists(path);
+    }
+
+    // a new reference to the same blob, no bytes are copied
+    @Override
+    public void copy(String sourcePath, String username, String filename) throws IOException {
+        BlobReference source = referenceRepository.findById(normalize(sourcePath)).orElse(null);
+        if (source == null) {
+            // written before content addressing; storing it moves it into a blob
+            store(username, filename, legacy.load(sourcePath));
+            return;
+        }
+
+        String sha256 = source.getSha256();
+        String path = "/uploads/" + username + "/" + filename;
+        Optional<String> previous;
+        synchronized (lock(sha256)) {
+            previous = transactionTemplate.execute(status -> blobRepository.findById(sha256)
+                    .map(blob -> {
+                        blob.setRefCount(blob.getRefCount() + 1);
+                        return Optional.ofNullable(pointTo(path, sha256));
+                    })
+                    .orElse(null));
+        }
+
+        if (previous == null) {
+            throw new IOException("File not found: " + sourcePath);
+        }
+        previous.ifPresent(this::release);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long stored = blobRepository.sumSize();
+        long referenced = blobRepository.sumReferencedSize();
+        stats.put("blobs", blobRepository.count());
+        stats.put("references", referenceRepository.count());
+        stats.put("storedBytes", stored);
+        stats.put("referencedBytes", referenced);
+        stats.put("savedBytes", referenced - stored);
+        return stats;
+    }
+
+    // Points the path at the blob, writing the blob first when it is new
+    private void link(String username, String filename, String sha256, long size, BlobWriter writer)
+            throws IOException {
+        String path = "/uploads/" + username + "/" + filename;
+
+        String previous;
+        synchronized (lock(sha256)) {
+            Path file = blobFile(sha256);
+            if (!Files.exists(file)) {
+                Files.createDirectories(file.getParent());
+                writer.write(file);
+            }
+            previous = transactionTemplate.execute(status -> {
+                acquire(sha256, size);
+                return pointTo(path, sha256);
+            });
+        }
+
+        // the path referred to other content before (or to the same, counted twice now)
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    // callers hold the blob's lock
+    private void acquire(String sha256, long size) {
+        StoredBlob blob = blobRepository.findById(sha256).orElse(null);
+        if (blob == null) {
+            blobRepository.save(StoredBlob.builder()
+                    .sha256(sha256)
+                    .size(size)
+                    .refCount(1)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        } else {
+            blob.setRefCount(blob.getRefCount() + 1);
+        }
+    }
+
+    // returns the blob the path referred to before, if any
+    private String pointTo(String path, String sha256) {
+        BlobReference reference = referenceRepository.findById(path).orElse(null);
+        String previous = reference != null ? reference.getSha256() : null;
+        referenceRepository.save(BlobReference.builder().path(path).sha256(sha256).build());
+        return previous;
+    }
+
+    private void release(String sha256) {
+        synchronized (lock(sha256)) {
+            Boolean unused = transactionTemplate.execute(status -> blobRepository.findById(sha256)
+                    .map(blob -> {
+                        blob.setRefCount(blob.getRefCount() - 1);
+                        if (blob.getRefCount() > 0) {
+                            return false;
+                        }
+                        blobRepository.delete(blob);
+                        return true;
+                    })
+                    .orElse(false));
+
+            if (Boolean.TRUE.equals(unused)) {
+                try {
+                    Files.deleteIfExists(blobFile(sha256));
+                } catch (IOException e) {
+                    // no row refers to it any more, only disk space is lost
+                    log.warn("Failed to delete blob {}: {}", sha256, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // blobs/ab/abcdef...: two hex characters of fan-out keep directories small
+    private Path blobFile(String sha256) {
+        return directory.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private Object lock(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    @FunctionalInterface
+    private interface BlobWriter {
+        void write(Path file) throws IOException;
+    }
+}
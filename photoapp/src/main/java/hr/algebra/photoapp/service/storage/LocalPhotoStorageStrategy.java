@@ -3,9 +3,13 @@ package hr.algebra.photoapp.service.storage;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 
 // Strategy Pattern (Concrete Implementation) + Singleton (Spring managed)
@@ -17,13 +21,16 @@ public class LocalPhotoStorageStrategy implements PhotoStorageStrategy {
 
     @Override
     public void store(String username, String filename, byte[] data) throws IOException {
-        Path userDir = Paths.get(UPLOAD_DIR, username);
-        Files.createDirectories(userDir);
-
-        Path filePath = userDir.resolve(filename);
+        Path filePath = prepare(username, filename);
         Files.write(filePath, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
     }
 
+    @Override
+    public long store(String username, String filename, InputStream data) throws IOException {
+        Path filePath = prepare(username, filename);
+        return Files.copy(data, filePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     @Override
     public byte[] load(String path) throws IOException {
         // Remove leading slash if it is there
@@ -37,6 +44,16 @@ public class LocalPhotoStorageStrategy implements PhotoStorageStrategy {
         return Files.readAllBytes(filePath);
     }
 
+    @Override
+    public StoredContent open(String path) throws IOException {
+        String cleanPath = path.startsWith("/") ? path.substring(1) : path;
+        try {
+            return StoredContent.ofFile(Paths.get(cleanPath));
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + path);
+        }
+    }
+
     @Override
     public void delete(String path) throws IOException {
         String cleanPath = path.startsWith("/") ? path.substring(1) : path;
@@ -53,4 +70,29 @@ public class LocalPhotoStorageStrategy implements PhotoStorageStrategy {
         Path filePath = Paths.get(cleanPath);
         return Files.exists(filePath);
     }
+
+    // a hard link, so nothing is copied; a plain copy where the file system has none
+    @Override
+    public void link(String sourcePath, String username, String filename) throws IOException {
+        String cleanPath = sourcePath.startsWith("/") ? sourcePath.substring(1) : sourcePath;
+        Path source = Paths.get(cleanPath);
+        Path target = prepare(username, filename);
+        // left over from a move that was interrupted
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (NoSuchFileException e) {
+            throw new IOException("File not found: " + sourcePath);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // e.g. another device, or a file system without hard links
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // filenames may carry subdirectories, e.g. the tiles of a zoom pyramid
+    private Path prepare(String username, String filename) throws IOException {
+        Path filePath = Paths.get(UPLOAD_DIR, username).resolve(filename);
+        Files.createDirectories(filePath.getParent());
+        return filePath;
+    }
 }
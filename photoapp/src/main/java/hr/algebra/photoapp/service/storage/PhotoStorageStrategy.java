@@ -1,6 +1,9 @@
 package hr.algebra.photoapp.service.storage;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 // Strategy Pattern
 // Defines interface for different storage implementations (local, cloud, etc.)
@@ -10,12 +13,40 @@ public interface PhotoStorageStrategy {
     // Store photo bytes to storage
     void store(String username, String filename, byte[] data) throws IOException;
     
+    // Store photo from a stream, without holding the whole file in memory; returns the bytes stored
+    default long store(String username, String filename, InputStream data) throws IOException {
+        byte[] bytes = data.readAllBytes();
+        store(username, filename, bytes);
+        return bytes.length;
+    }
+
+    default long store(String username, String filename, ReadableByteChannel data) throws IOException {
+        return store(username, filename, Channels.newInputStream(data));
+    }
+
     // Load photo bytes from storage
     byte[] load(String path) throws IOException;
+
+    // Open photo for reading without loading it; the caller closes it
+    default StoredContent open(String path) throws IOException {
+        return StoredContent.ofBytes(load(path));
+    }
     
     // Delete photo from storage
     void delete(String path) throws IOException;
     
     // Check if photo exists in storage
     boolean exists(String path);
+
+    // Store an existing photo under a second path; backends that share content avoid the copy
+    default void copy(String sourcePath, String username, String filename) throws IOException {
+        store(username, filename, load(sourcePath));
+    }
+
+    // Make a stored file readable under a second path as well, for moves that must not interrupt readers:
+    // link, switch the database over, then delete the old path. The file must not be rewritten in place
+    // while both paths exist; backends that can share the bytes without copying them do.
+    default void link(String sourcePath, String username, String filename) throws IOException {
+        copy(sourcePath, username, filename);
+    }
 }
@@ -0,0 +1,460 @@
+package hr.algebra.photoapp.service.storage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Strategy Pattern (Concrete Implementation) + Object Pool Pattern (pooled HTTP connections)
+// Photos as objects in an S3-compatible bucket (AWS S3, MinIO, ...), keyed by their storage path, so every
+// node of the web tier sees the same files. Large files are uploaded as multipart uploads and loaded with
+// ranged GETs, part-size pieces at a time on a shared transfer pool; opened for a response, only the
+// range being sent is requested. Files written to uploads/ before this strategy was enabled are still
+// read from there. Enabled with photoapp.storage.strategy=s3.
+@Service
+@Primary
+@ConditionalOnProperty(name = "photoapp.storage.strategy", havingValue = "s3")
+@Slf4j
+public class S3PhotoStorageStrategy implements PhotoStorageStrategy {
+
+    // S3's lower limit for every part but the last
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final LocalPhotoStorageStrategy legacy;
+    private final S3Client s3;
+    private final String bucket;
+    private final int partSize;
+    private final int multipartThreshold;
+    private final int transferThreads;
+    private final ExecutorService transfers;
+
+    private final AtomicLong multipartUploads = new AtomicLong();
+    private final AtomicLong rangedReads = new AtomicLong();
+    private final AtomicLong partsTransferred = new AtomicLong();
+
+    public S3PhotoStorageStrategy(LocalPhotoStorageStrategy legacy,
+                                  @Value("${photoapp.storage.s3.endpoint:}") String endpoint,
+                                  @Value("${photoapp.storage.s3.region:us-east-1}") String region,
+                                  @Value("${photoapp.storage.s3.bucket:photoapp}") String bucket,
+                                  @Value("${photoapp.storage.s3.access-key:}") String accessKey,
+                                  @Value("${photoapp.storage.s3.secret-key:}") String secretKey,
+                                  @Value("${photoapp.storage.s3.path-style:true}") boolean pathStyle,
+                                  @Value("${photoapp.storage.s3.create-bucket:true}") boolean createBucket,
+                                  @Value("${photoapp.storage.s3.max-connections:64}") int maxConnections,
+                                  @Value("${photoapp.storage.s3.part-size:8388608}") int partSize,
+                                  @Value("${photoapp.storage.s3.multipart-threshold:16777216}") int multipartThreshold,
+                                  @Value("${photoapp.storage.s3.transfer-threads:8}") int transferThreads) {
+        this.legacy = legacy;
+        this.bucket = bucket;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.multipartThreshold = Math.max(multipartThreshold, this.partSize);
+        this.transferThreads = Math.max(1, transferThreads);
+
+        // keep-alive connections shared by request threads and the transfer pool
+        AwsCredentialsProvider credentials = accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .forcePathStyle(pathStyle)
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(Math.max(maxConnections, this.transferThreads))
+                        .connectionTimeout(Duration.ofSeconds(5))
+                        .connectionMaxIdleTime(Duration.ofSeconds(60))
+                        .tcpKeepAlive(true));
+        if (!endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        this.s3 = builder.build();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.transfers = Executors.newFixedThreadPool(this.transferThreads, task -> {
+            Thread thread = new Thread(task, "s3-transfer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (createBucket) {
+            ensureBucket();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transfers.shutdownNow();
+        s3.close();
+    }
+
+    @Override
+    public void store(String username, String filename, byte[] data) throws IOException {
+        String key = key("/uploads/" + username + "/" + filename);
+        try {
+            if (data.length >= multipartThreshold) {
+                ByteBuffer all = ByteBuffer.wrap(data);
+                storeMultipart(key, () -> all.hasRemaining() ? nextPart(all) : null);
+            } else {
+                s3.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromBytes(data));
+            }
+        } catch (S3Exception e) {
+            throw new IOException("Failed to store " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Files below the multipart threshold are a single PUT; past it the stream is read a part at a time
+    // while earlier parts are still going up
+    @Override
+    public long store(String username, String filename, InputStream data) throws IOException {
+        String key = key("/uploads/" + username + "/" + filename);
+        byte[] head = data.readNBytes(multipartThreshold);
+        try {
+            if (head.length < multipartThreshold) {
+                s3.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromBytes(head));
+                return head.length;
+            }
+            ByteBuffer buffered = ByteBuffer.wrap(head);
+            return storeMultipart(key, () -> {
+                if (buffered.hasRemaining()) {
+                    return nextPart(buffered);
+                }
+                byte[] part = data.readNBytes(partSize);
+                return part.length > 0 ? ByteBuffer.wrap(part) : null;
+            });
+        } catch (S3Exception e) {
+            throw new IOException("Failed to store " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] load(String path) throws IOException {
+        if (legacy.exists(path)) {
+            return legacy.load(path);
+        }
+
+        String key = key(path);
+        ResponseBytes<GetObjectResponse> head = firstPart(key, path);
+        long size = totalSize(head.response());
+        if (size <= head.asByteArrayUnsafe().length) {
+            return head.asByteArrayUnsafe();
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("File too large to load: " + path);
+        }
+
+        byte[] bytes = new byte[(int) size];
+        System.arraycopy(head.asByteArrayUnsafe(), 0, bytes, 0, head.asByteArrayUnsafe().length);
+        readRanges(key, size, head.asByteArrayUnsafe().length, (position, part) ->
+                System.arraycopy(part, 0, bytes, (int) position, part.length));
+        return bytes;
+    }
+
+    // Objects up to one part are held in memory; of larger ones only the first part is, and the bytes a
+    // response needs past it are streamed from one ranged GET, so sending starts without a full download
+    @Override
+    public StoredContent open(String path) throws IOException {
+        if (legacy.exists(path)) {
+            return legacy.open(path);
+        }
+
+        String key = key(path);
+        ResponseBytes<GetObjectResponse> head = firstPart(key, path);
+        long size = totalSize(head.response());
+        if (size <= head.asByteArrayUnsafe().length) {
+            return StoredContent.ofBytes(head.asByteArrayUnsafe());
+        }
+        return StoredContent.ofRanges(head.asByteBuffer(), size, (position, count) -> openRange(key, position, count));
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        if (legacy.exists(path)) {
+            legacy.delete(path);
+        }
+        try {
+            s3.deleteObject(request -> request.bucket(bucket).key(key(path)));
+        } catch (S3Exception e) {
+            throw new IOException("Failed to delete " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        if (legacy.exists(path)) {
+            return true;
+        }
+        try {
+            s3.headObject(request -> request.bucket(bucket).key(key(path)));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // server-side copy, the bytes never pass through this node
+    @Override
+    public void copy(String sourcePath, String username, String filename) throws IOException {
+        if (legacy.exists(sourcePath)) {
+            // written before object storage; storing it moves it into the bucket
+            try (StoredContent content = legacy.open(sourcePath); InputStream data = content.inputStream()) {
+                store(username, filename, data);
+            }
+            return;
+        }
+        String target = key("/uploads/" + username + "/" + filename);
+        try {
+            s3.copyObject(request -> request
+                    .sourceBucket(bucket).sourceKey(key(sourcePath))
+                    .destinationBucket(bucket).destinationKey(target));
+        } catch (NoSuchKeyException e) {
+            throw new IOException("File not found: " + sourcePath);
+        } catch (S3Exception e) {
+            throw new IOException("Failed to copy " + sourcePath + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("strategy", "s3");
+        stats.put("bucket", bucket);
+        stats.put("partSize", partSize);
+        stats.put("transferThreads", transferThreads);
+        stats.put("multipartUploads", multipartUploads.get());
+        stats.put("rangedReads", rangedReads.get());
+        stats.put("partsTransferred", partsTransferred.get());
+        return stats;
+    }
+
+    // Parts go up in parallel, at most transfer-threads of them held in memory at a time; the upload is
+    // aborted if any part fails, so no orphaned parts are left behind (and billed)
+    private long storeMultipart(String key, PartSource source) throws IOException {
+        String uploadId = s3.createMultipartUpload(request -> request.bucket(bucket).key(key)).uploadId();
+        multipartUploads.incrementAndGet();
+
+        Semaphore inFlight = new Semaphore(transferThreads);
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        long size = 0;
+        try {
+            for (ByteBuffer part = source.next(); part != null; part = source.next()) {
+                int partNumber = parts.size() + 1;
+                size += part.remaining();
+                ByteBuffer body = part;
+                parts.add(transfers.submit(() -> {
+                    try {
+                        String etag = s3.uploadPart(request -> request.bucket(bucket).key(key)
+                                        .uploadId(uploadId).partNumber(partNumber),
+                                RequestBody.fromByteBuffer(body)).eTag();
+                        partsTransferred.incrementAndGet();
+                        return CompletedPart.builder().partNumber(partNumber).eTag(etag).build();
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                // the next part is only read once a slot is free
+                inFlight.acquire();
+            }
+
+            List<CompletedPart> completed = new ArrayList<>();
+            for (Future<CompletedPart> part : parts) {
+                completed.add(part.get());
+            }
+            s3.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(upload -> upload.parts(completed)));
+            return size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new IOException("Interrupted while storing " + key, e);
+        } catch (ExecutionException e) {
+            abort(key, uploadId, parts);
+            throw new IOException("Failed to store " + key + ": " + e.getCause().getMessage(), e.getCause());
+        } catch (IOException | RuntimeException e) {
+            abort(key, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private void abort(String key, String uploadId, List<Future<CompletedPart>> parts) {
+        parts.forEach(part -> part.cancel(true));
+        try {
+            s3.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+        } catch (S3Exception e) {
+            log.warn("Failed to abort multipart upload of {}: {}", key, e.getMessage());
+        }
+    }
+
+    // The first part-size bytes; the Content-Range of the answer tells how much more there is
+    private ResponseBytes<GetObjectResponse> firstPart(String key, String path) throws IOException {
+        try {
+            return s3.getObjectAsBytes(request -> request.bucket(bucket).key(key)
+                    .range("bytes=0-" + (partSize - 1)));
+        } catch (NoSuchKeyException e) {
+            throw new IOException("File not found: " + path);
+        } catch (S3Exception e) {
+            // an empty object has no satisfiable range
+            if (e.statusCode() == 416) {
+                return s3.getObjectAsBytes(request -> request.bucket(bucket).key(key));
+            }
+            throw new IOException("Failed to read " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    // "bytes 0-8388607/52428800" -> 52428800; without a range the body is the whole object
+    private static long totalSize(GetObjectResponse response) {
+        String contentRange = response.contentRange();
+        if (contentRange == null || contentRange.indexOf('/') < 0) {
+            return response.contentLength();
+        }
+        return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+    }
+
+    // A ranged GET read as it arrives; closed early, the connection is dropped instead of drained
+    private InputStream openRange(String key, long position, long count) throws IOException {
+        rangedReads.incrementAndGet();
+        ResponseInputStream<GetObjectResponse> body;
+        try {
+            body = s3.getObject(request -> request.bucket(bucket).key(key)
+                    .range("bytes=" + position + "-" + (position + count - 1)));
+        } catch (S3Exception e) {
+            throw new IOException("Failed to read " + key + ": " + e.getMessage(), e);
+        }
+
+        return new FilterInputStream(body) {
+            private long remaining = count;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (remaining > 0) {
+                    body.abort();
+                }
+                super.close();
+            }
+        };
+    }
+
+    // Fetches [from, size) in part-size ranges on the transfer pool and hands each to sink as it arrives
+    private void readRanges(String key, long size, long from, RangeSink sink) throws IOException {
+        rangedReads.incrementAndGet();
+        List<Future<Void>> ranges = new ArrayList<>();
+        for (long start = from; start < size; start += partSize) {
+            long position = start;
+            long end = Math.min(start + partSize, size) - 1;
+            ranges.add(transfers.submit(() -> {
+                byte[] part = s3.getObjectAsBytes(request -> request.bucket(bucket).key(key)
+                        .range("bytes=" + position + "-" + end)).asByteArrayUnsafe();
+                partsTransferred.incrementAndGet();
+                sink.accept(position, part);
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ranges.forEach(range -> range.cancel(true));
+            throw new IOException("Interrupted while reading " + key, e);
+        } catch (ExecutionException e) {
+            ranges.forEach(range -> range.cancel(true));
+            throw new IOException("Failed to read " + key + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void ensureBucket() {
+        try {
+            s3.headBucket(request -> request.bucket(bucket));
+        } catch (NoSuchBucketException e) {
+            s3.createBucket(request -> request.bucket(bucket));
+            log.info("Created bucket {}", bucket);
+        } catch (S3Exception e) {
+            if (e.statusCode() != 404) {
+                throw e;
+            }
+            s3.createBucket(request -> request.bucket(bucket));
+            log.info("Created bucket {}", bucket);
+        }
+    }
+
+    // the next part-size window of the buffer, without copying it
+    private ByteBuffer nextPart(ByteBuffer buffer) {
+        ByteBuffer part = buffer.slice(buffer.position(), Math.min(partSize, buffer.remaining()));
+        buffer.position(buffer.position() + part.remaining());
+        return part;
+    }
+
+    // object keys are storage paths without the leading slash: uploads/<user>/<ab>/<cd>/<id>.jpg
+    private static String key(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    // the next part to upload, null after the last
+    @FunctionalInterface
+    private interface PartSource {
+        ByteBuffer next() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RangeSink {
+        void accept(long position, byte[] part) throws IOException;
+    }
+}
@@ -0,0 +1,392 @@
+package hr.algebra.photoapp.service.storage;
+
+import hr.algebra.photoapp.model.SegmentEntry;
+import hr.algebra.photoapp.repository.SegmentEntryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Strategy Pattern (Concrete Implementation)
+// Small files packed into large append-only segment files (segments/00000001.seg), found through an
+// offset/length index in the database and read from one memory mapping per segment, instead of an open,
+// a read and a close per file. Files above max-object-bytes, and files written before this strategy was
+// enabled, stay single files under uploads/. compact() reclaims the space of deleted and replaced files.
+// Enabled with photoapp.storage.strategy=segments.
+@Service
+@Primary
+@ConditionalOnProperty(name = "photoapp.storage.strategy", havingValue = "segments")
+@Slf4j
+public class SegmentStorageStrategy implements PhotoStorageStrategy {
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("(\\d{8})\\.seg");
+    // a single mapping addresses at most 2 GB
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final SegmentEntryRepository entryRepository;
+    private final LocalPhotoStorageStrategy legacy;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxObjectBytes;
+    private final double compactMinGarbage;
+
+    // one writer at a time appends to the active segment
+    private final Object appendLock = new Object();
+    // sharing a region (copy) and moving it (compaction) must not interleave
+    private final Object regionLock = new Object();
+    private final Map<Integer, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+    // emptied by the last compaction and deleted by the next, so lookups made before the move still read
+    private final Set<Integer> retired = ConcurrentHashMap.newKeySet();
+
+    private FileChannel active;
+    private int activeSegment;
+    private long activeSize;
+
+    private long appended;
+    private long remaps;
+    private long compactedSegments;
+    private long reclaimedBytes;
+
+    public SegmentStorageStrategy(SegmentEntryRepository entryRepository,
+                                  LocalPhotoStorageStrategy legacy,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${photoapp.storage.segment-dir:segments}") String directory,
+                                  @Value("${photoapp.storage.segment.segment-bytes:268435456}") long segmentBytes,
+                                  @Value("${photoapp.storage.segment.max-object-bytes:1048576}") int maxObjectBytes,
+                                  @Value("${photoapp.storage.segment.compact-min-garbage:0.5}") double compactMinGarbage)
+            throws IOException {
+        this.entryRepository = entryRepository;
+        this.legacy = legacy;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.directory = Paths.get(directory);
+        this.segmentBytes = Math.min(segmentBytes, MAX_SEGMENT_BYTES);
+        this.maxObjectBytes = (int) Math.min(maxObjectBytes, this.segmentBytes);
+        this.compactMinGarbage = compactMinGarbage;
+        Files.createDirectories(this.directory);
+
+        // carry on appending to the newest segment; anything past its last indexed file is garbage
+        // from a write that never reached the index, which compaction reclaims
+        List<Integer> segments = segments();
+        if (!segments.isEmpty()) {
+            activeSegment = segments.get(segments.size() - 1);
+            active = FileChannel.open(segmentFile(activeSegment), StandardOpenOption.WRITE);
+            activeSize = active.size();
+        }
+    }
+
+    @Override
+    public void store(String username, String filename, byte[] data) throws IOException {
+        String path = "/uploads/" + username + "/" + filename;
+        if (data.length > maxObjectBytes) {
+            legacy.store(username, filename, data);
+            entryRepository.findById(path).ifPresent(entryRepository::delete);
+            return;
+        }
+
+        Region region = append(data, true);
+        entryRepository.save(region.entry(path));
+        // replaced a file from before, or one that was too large for a segment
+        if (legacy.exists(path)) {
+            legacy.delete(path);
+        }
+    }
+
+    // small files are buffered up to the limit; the rest stream past the segments into a file of their own
+    @Override
+    public long store(String username, String filename, InputStream data) throws IOException {
+        byte[] head = data.readNBytes(maxObjectBytes + 1);
+        if (head.length <= maxObjectBytes) {
+            store(username, filename, head);
+            return head.length;
+        }
+
+        long size = legacy.store(username, filename, new SequenceInputStream(new ByteArrayInputStream(head), data));
+        entryRepository.findById("/uploads/" + username + "/" + filename).ifPresent(entryRepository::delete);
+        return size;
+    }
+
+    @Override
+    public byte[] load(String path) throws IOException {
+        SegmentEntry entry = entryRepository.findById(normalize(path)).orElse(null);
+        if (entry == null) {
+            return legacy.load(path);
+        }
+        ByteBuffer slice = slice(entry);
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    // a slice of the segment's mapping, nothing is read until the bytes are written out
+    @Override
+    public StoredContent open(String path) throws IOException {
+        SegmentEntry entry = entryRepository.findById(normalize(path)).orElse(null);
+        if (entry == null) {
+            return legacy.open(path);
+        }
+        return StoredContent.ofBuffer(slice(entry));
+    }
+
+    // the bytes stay in the segment until it is compacted
+    @Override
+    public void delete(String path) throws IOException {
+        SegmentEntry entry = entryRepository.findById(normalize(path)).orElse(null);
+        if (entry == null) {
+            legacy.delete(path);
+        } else {
+            entryRepository.delete(entry);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return entryRepository.existsById(normalize(path)) || legacy.exists(path);
+    }
+
+    // a second entry for the same region, no bytes are copied
+    @Override
+    public void copy(String sourcePath, String username, String filename) throws IOException {
+        String path = "/uploads/" + username + "/" + filename;
+        synchronized (regionLock) {
+            SegmentEntry source = entryRepository.findById(normalize(sourcePath)).orElse(null);
+            if (source != null) {
+                entryRepository.save(SegmentEntry.builder()
+                        .path(path)
+                        .segment(source.getSegment())
+                        .position(source.getPosition())
+                        .size(source.getSize())
+                        .build());
+                return;
+            }
+        }
+        // a single file; storing it moves it into a segment when it is small enough
+        store(username, filename, legacy.load(sourcePath));
+    }
+
+    // Rewrites sealed segments that are mostly garbage: their live regions are appended to the active
+    // segment and the index is pointed there. Segments emptied by the previous run are deleted first;
+    // returns the bytes freed on disk.
+    public long compact() {
+        long freed = 0;
+        for (Integer segment : new ArrayList<>(retired)) {
+            freed += deleteSegment(segment);
+            retired.remove(segment);
+        }
+
+        int current;
+        synchronized (appendLock) {
+            current = activeSegment;
+        }
+        for (Integer segment : segments()) {
+            if (segment == current || retired.contains(segment)) {
+                continue;
+            }
+            try {
+                long fileSize = Files.size(segmentFile(segment));
+                List<Object[]> regions = entryRepository.findRegions(segment);
+                long live = regions.stream().mapToLong(region -> (Long) region[1]).sum();
+                if (fileSize - live < fileSize * compactMinGarbage) {
+                    continue;
+                }
+
+                List<Region> copies = new ArrayList<>();
+                for (Object[] region : regions) {
+                    long position = (Long) region[0];
+                    long size = (Long) region[1];
+                    ByteBuffer bytes = mapping(segment, position + size).slice((int) position, (int) size);
+                    byte[] data = new byte[(int) size];
+                    bytes.get(data);
+                    copies.add(append(data, false));
+                }
+                // one sync for the whole segment, before the index points at the copies
+                sync();
+                for (int i = 0; i < regions.size(); i++) {
+                    long position = (Long) regions.get(i)[0];
+                    Region moved = copies.get(i);
+                    synchronized (regionLock) {
+                        transactionTemplate.executeWithoutResult(status ->
+                                entryRepository.moveRegion(segment, position, moved.segment(), moved.position()));
+                    }
+                }
+                retired.add(segment);
+                log.info("Compacted segment {}: {} of {} bytes still in use", segment, live, fileSize);
+                synchronized (this) {
+                    compactedSegments++;
+                }
+            } catch (IOException e) {
+                log.warn("Failed to compact segment {}: {}", segment, e.getMessage());
+            }
+        }
+        return freed;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<Integer> segments = segments();
+        long segmentFileBytes = 0;
+        for (Integer segment : segments) {
+            try {
+                segmentFileBytes += Files.size(segmentFile(segment));
+            } catch (IOException e) {
+                // deleted meanwhile
+            }
+        }
+        stats.put("strategy", "segments");
+        stats.put("segments", segments.size());
+        stats.put("segmentBytes", segmentFileBytes);
+        stats.put("entries", entryRepository.count());
+        stats.put("indexedBytes", entryRepository.sumSize());
+        stats.put("mappedSegments", mappings.size());
+        synchronized (this) {
+            stats.put("appended", appended);
+            stats.put("remaps", remaps);
+            stats.put("compactedSegments", compactedSegments);
+            stats.put("reclaimedBytes", reclaimedBytes);
+        }
+        return stats;
+    }
+
+    // durable: on disk before returning, so an index entry saved afterwards never outlives its bytes in a crash
+    private Region append(byte[] data, boolean durable) throws IOException {
+        synchronized (appendLock) {
+            if (active == null || activeSize + data.length > segmentBytes) {
+                roll();
+            }
+            long position = activeSize;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                active.write(buffer, position + buffer.position());
+            }
+            activeSize += data.length;
+            if (durable) {
+                active.force(false);
+            }
+            synchronized (this) {
+                appended++;
+            }
+            return new Region(activeSegment, position, data.length);
+        }
+    }
+
+    private void sync() throws IOException {
+        synchronized (appendLock) {
+            if (active != null) {
+                active.force(false);
+            }
+        }
+    }
+
+    // callers hold the append lock; closing does not sync, so appends not yet forced are flushed first
+    private void roll() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+        }
+        activeSegment++;
+        active = FileChannel.open(segmentFile(activeSegment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeSize = 0;
+    }
+
+    private ByteBuffer slice(SegmentEntry entry) throws IOException {
+        long end = entry.getPosition() + entry.getSize();
+        return mapping(entry.getSegment(), end).slice((int) entry.getPosition(), (int) entry.getSize());
+    }
+
+    // Segments are mapped once; the active one is mapped again when a read goes past what was mapped
+    private MappedByteBuffer mapping(int segment, long end) throws IOException {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping != null && mapping.capacity() >= end) {
+            return mapping;
+        }
+        synchronized (mappings) {
+            mapping = mappings.get(segment);
+            if (mapping == null || mapping.capacity() < end) {
+                try (FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ)) {
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                if (mapping.capacity() < end) {
+                    throw new IOException("Segment " + segment + " ends before byte " + end);
+                }
+                mappings.put(segment, mapping);
+                synchronized (this) {
+                    remaps++;
+                }
+            }
+            return mapping;
+        }
+    }
+
+    private long deleteSegment(int segment) {
+        // an open mapping stays readable after the file is gone, and is unmapped once unreachable
+        mappings.remove(segment);
+        try {
+            Path file = segmentFile(segment);
+            long size = Files.size(file);
+            Files.delete(file);
+            synchronized (this) {
+                reclaimedBytes += size;
+            }
+            return size;
+        } catch (IOException e) {
+            log.warn("Failed to delete segment {}: {}", segment, e.getMessage());
+            return 0;
+        }
+    }
+
+    // segment numbers on disk, oldest first
+    private List<Integer> segments() {
+        TreeSet<Integer> segments = new TreeSet<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to list segments in {}: {}", directory, e.getMessage());
+        }
+        return new ArrayList<>(segments);
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve(String.format("%08d.seg", segment));
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private record Region(int segment, long position, long size) {
+
+        SegmentEntry entry(String path) {
+            return SegmentEntry.builder().path(path).segment(segment).position(position).size(size).build();
+        }
+    }
+}
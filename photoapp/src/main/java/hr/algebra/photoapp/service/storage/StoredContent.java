@@ -0,0 +1,201 @@
+package hr.algebra.photoapp.service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Value Object Pattern
+// A stored file opened for reading: its length, a channel over its bytes and, when it is a local file,
+// the file itself so it can be handed to the container or the kernel instead of being copied. Remote
+// content past the bytes already fetched is read on demand, only the range that is asked for.
+public class StoredContent implements Closeable {
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final RangeReader ranges;
+    private final long length;
+    private final Path file;
+
+    private StoredContent(FileChannel channel, ByteBuffer buffer, RangeReader ranges, long length, Path file) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.ranges = ranges;
+        this.length = length;
+        this.file = file;
+    }
+
+    // throws NoSuchFileException when the file is missing
+    public static StoredContent ofFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new StoredContent(channel, null, null, channel.size(), file);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // for backends that can only produce bytes
+    public static StoredContent ofBytes(byte[] bytes) {
+        return ofBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    // the buffer's remaining bytes, e.g. a slice of a memory-mapped file
+    public static StoredContent ofBuffer(ByteBuffer buffer) {
+        return new StoredContent(null, buffer.slice(), null, buffer.remaining(), null);
+    }
+
+    // length bytes of which head holds the first ones; the rest is read through ranges when it is needed
+    public static StoredContent ofRanges(ByteBuffer head, long length, RangeReader ranges) {
+        return new StoredContent(null, head.slice(), ranges, length, null);
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    // local file behind the content, null when it only exists in memory
+    public Path getFile() {
+        return file;
+    }
+
+    public InputStream inputStream() {
+        if (channel != null) {
+            return Channels.newInputStream(channel);
+        }
+        if (ranges != null) {
+            return new SequenceInputStream(bufferStream(), remoteStream(buffer.remaining(), length - buffer.remaining()));
+        }
+        return bufferStream();
+    }
+
+    private InputStream bufferStream() {
+        ByteBuffer remaining = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return remaining.hasRemaining() ? remaining.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!remaining.hasRemaining()) {
+                    return len == 0 ? 0 : -1;
+                }
+                int n = Math.min(len, remaining.remaining());
+                remaining.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    // opened at the first read, so a caller that stops within the head never makes a request
+    private InputStream remoteStream(long position, long count) {
+        return new InputStream() {
+            private InputStream in;
+
+            @Override
+            public int read() throws IOException {
+                return open().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return open().read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (in != null) {
+                    in.close();
+                }
+            }
+
+            private InputStream open() throws IOException {
+                if (in == null) {
+                    in = count > 0 ? ranges.open(position, count) : InputStream.nullInputStream();
+                }
+                return in;
+            }
+        };
+    }
+
+    public long transferTo(WritableByteChannel target) throws IOException {
+        return transferTo(0, length, target);
+    }
+
+    // Files go through FileChannel.transferTo (sendfile when the target is a socket or file); remote
+    // content is one read of whatever the head does not cover
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (ranges != null) {
+            return transferRange(position, count, target);
+        }
+        if (channel == null) {
+            ByteBuffer range = buffer.duplicate().position((int) position).limit((int) (position + count));
+            while (range.hasRemaining()) {
+                target.write(range);
+            }
+            return count;
+        }
+
+        long sent = 0;
+        while (sent < count) {
+            long chunk = channel.transferTo(position + sent, count - sent, target);
+            if (chunk <= 0) {
+                break;
+            }
+            sent += chunk;
+        }
+        return sent;
+    }
+
+    private long transferRange(long position, long count, WritableByteChannel target) throws IOException {
+        long sent = 0;
+        if (position < buffer.remaining()) {
+            int inHead = (int) Math.min(count, buffer.remaining() - position);
+            ByteBuffer range = buffer.duplicate().position((int) position).limit((int) position + inHead);
+            while (range.hasRemaining()) {
+                target.write(range);
+            }
+            sent = inHead;
+        }
+        if (sent == count) {
+            return sent;
+        }
+
+        try (InputStream in = ranges.open(position + sent, count - sent)) {
+            byte[] chunk = new byte[COPY_BUFFER_BYTES];
+            int n;
+            while (sent < count && (n = in.read(chunk, 0, (int) Math.min(chunk.length, count - sent))) > 0) {
+                ByteBuffer written = ByteBuffer.wrap(chunk, 0, n);
+                while (written.hasRemaining()) {
+                    target.write(written);
+                }
+                sent += n;
+            }
+        }
+        return sent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // count bytes from position of content kept elsewhere, e.g. as one ranged GET
+    @FunctionalInterface
+    public interface RangeReader {
+        InputStream open(long position, long count) throws IOException;
+    }
+}
@@ -0,0 +1,121 @@
+package hr.algebra.photoapp.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Value Object Pattern
+// Affine colour transform (3x3 matrix plus offset, channels 0-255). Grayscale, saturation, brightness,
+// contrast and channel mixing are all of this form, so any combination of them composes into one
+// matrix and costs a single per-pixel pass
+public class ColorMatrix {
+
+    // BT.601 luma, the same weights as the perceptual hash
+    private static final double LUMA_R = 0.299;
+    private static final double LUMA_G = 0.587;
+    private static final double LUMA_B = 0.114;
+
+    // rows r, g, b: [coefficient r, coefficient g, coefficient b, offset]
+    private final double[] m;
+
+    private ColorMatrix(double[] m) {
+        this.m = m;
+    }
+
+    public static ColorMatrix identity() {
+        return new ColorMatrix(new double[]{
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 1, 0});
+    }
+
+    // 0 is grayscale, 1 leaves the image as it is, above 1 boosts colours
+    public static ColorMatrix saturation(double s) {
+        double ir = (1 - s) * LUMA_R;
+        double ig = (1 - s) * LUMA_G;
+        double ib = (1 - s) * LUMA_B;
+        return new ColorMatrix(new double[]{
+                ir + s, ig, ib, 0,
+                ir, ig + s, ib, 0,
+                ir, ig, ib + s, 0});
+    }
+
+    public static ColorMatrix grayscale() {
+        return saturation(0);
+    }
+
+    // percent of full scale added to every channel, -100..100
+    public static ColorMatrix brightness(int percent) {
+        double offset = 255.0 * percent / 100;
+        return new ColorMatrix(new double[]{
+                1, 0, 0, offset,
+                0, 1, 0, offset,
+                0, 0, 1, offset});
+    }
+
+    // -100 flattens to mid gray, 0 leaves the image as it is, 100 doubles the distance from mid gray
+    public static ColorMatrix contrast(int percent) {
+        double f = (100.0 + percent) / 100;
+        double offset = 128 * (1 - f);
+        return new ColorMatrix(new double[]{
+                f, 0, 0, offset,
+                0, f, 0, offset,
+                0, 0, f, offset});
+    }
+
+    // rows of the output channels: {rr, rg, rb, gr, gg, gb, br, bg, bb}
+    public static ColorMatrix channelMix(double[] coefficients) {
+        if (coefficients.length != 9) {
+            throw new IllegalArgumentException("A channel mix needs 9 coefficients");
+        }
+        return new ColorMatrix(new double[]{
+                coefficients[0], coefficients[1], coefficients[2], 0,
+                coefficients[3], coefficients[4], coefficients[5], 0,
+                coefficients[6], coefficients[7], coefficients[8], 0});
+    }
+
+    // this transform followed by next; intermediate values are not clamped
+    public ColorMatrix then(ColorMatrix next) {
+        double[] n = next.m;
+        double[] result = new double[12];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 4; col++) {
+                double sum = col == 3 ? n[row * 4 + 3] : 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += n[row * 4 + k] * m[k * 4 + col];
+                }
+                result[row * 4 + col] = sum;
+            }
+        }
+        return new ColorMatrix(result);
+    }
+
+    public boolean isIdentity() {
+        return Arrays.equals(toFixedPoint(), identity().toFixedPoint());
+    }
+
+    // Coefficients scaled by 1 << SHIFT; offsets scaled the same and with the rounding half folded in,
+    // so a channel is (c0 * r + c1 * g + c2 * b + c3) >> SHIFT
+    public int[] toFixedPoint() {
+        int[] fixed = new int[12];
+        for (int i = 0; i < 12; i++) {
+            fixed[i] = (int) Math.round(m[i] * (1 << PixelKernels.COLOR_SHIFT));
+        }
+        for (int row = 0; row < 3; row++) {
+            fixed[row * 4 + 3] += 1 << (PixelKernels.COLOR_SHIFT - 1);
+        }
+        return fixed;
+    }
+
+    // stable text form for cache keys
+    public String toKey() {
+        return IntStream.of(toFixedPoint()).mapToObj(Integer::toString).collect(Collectors.joining(","));
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.stream(m).mapToObj(v -> String.format(Locale.ROOT, "%.3f", v))
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+}
@@ -0,0 +1,127 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+// Value Object Pattern
+// Compact colour description of an image: a 64-bin RGB histogram (2 bits per channel, one byte per bin
+// holding the share of pixels in 1/255ths) and the few colours that dominate it
+public class ColorSignature {
+
+    public static final int BINS = 64;
+
+    private static final int PALETTE_SIZE = 5;
+    // bins below 2% of the pixels do not make it into the palette
+    private static final double PALETTE_MIN_SHARE = 0.02;
+
+    private final byte[] histogram;
+    private final List<Integer> palette;
+
+    private ColorSignature(byte[] histogram, List<Integer> palette) {
+        this.histogram = histogram;
+        this.palette = palette;
+    }
+
+    public static ColorSignature of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] counts = new long[BINS];
+        long[][] sums = new long[BINS][3];
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int rgb : row) {
+                int bin = binOf(rgb);
+                counts[bin]++;
+                sums[bin][0] += (rgb >> 16) & 0xFF;
+                sums[bin][1] += (rgb >> 8) & 0xFF;
+                sums[bin][2] += rgb & 0xFF;
+            }
+        }
+
+        long total = (long) width * height;
+        byte[] histogram = new byte[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            histogram[bin] = (byte) Math.round(counts[bin] * 255.0 / total);
+        }
+
+        // the mean colour of each of the largest bins, largest first
+        List<Integer> palette = new ArrayList<>();
+        boolean[] used = new boolean[BINS];
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            int largest = -1;
+            for (int bin = 0; bin < BINS; bin++) {
+                if (!used[bin] && (largest < 0 || counts[bin] > counts[largest])) {
+                    largest = bin;
+                }
+            }
+            if (counts[largest] < total * PALETTE_MIN_SHARE) {
+                break;
+            }
+            used[largest] = true;
+            long n = counts[largest];
+            palette.add((int) (sums[largest][0] / n) << 16 | (int) (sums[largest][1] / n) << 8 | (int) (sums[largest][2] / n));
+        }
+
+        return new ColorSignature(histogram, palette);
+    }
+
+    public byte[] getHistogram() {
+        return histogram;
+    }
+
+    // "#rrggbb,#rrggbb,..."
+    public String getPaletteHex() {
+        List<String> colors = new ArrayList<>();
+        for (int rgb : palette) {
+            colors.add(toHex(rgb));
+        }
+        return String.join(",", colors);
+    }
+
+    public static int binOf(int rgb) {
+        return ((rgb >> 22) & 0x3) << 4 | ((rgb >> 14) & 0x3) << 2 | ((rgb >> 6) & 0x3);
+    }
+
+    // centre of the bin's cube
+    public static int binColor(int bin) {
+        int r = ((bin >> 4) & 0x3) * 64 + 32;
+        int g = ((bin >> 2) & 0x3) * 64 + 32;
+        int b = (bin & 0x3) * 64 + 32;
+        return r << 16 | g << 8 | b;
+    }
+
+    // share of pixels in each bin, 0..1
+    public static float[] shares(byte[] histogram) {
+        float[] shares = new float[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            shares[bin] = (histogram[bin] & 0xFF) / 255f;
+        }
+        return shares;
+    }
+
+    public static double distance(int rgb1, int rgb2) {
+        int dr = ((rgb1 >> 16) & 0xFF) - ((rgb2 >> 16) & 0xFF);
+        int dg = ((rgb1 >> 8) & 0xFF) - ((rgb2 >> 8) & 0xFF);
+        int db = (rgb1 & 0xFF) - (rgb2 & 0xFF);
+        return Math.sqrt(dr * dr + dg * dg + db * db);
+    }
+
+    // "ff8800" or "#ff8800", null when it is not a colour
+    public static Integer parseHex(String color) {
+        if (color == null) {
+            return null;
+        }
+        String hex = color.trim().startsWith("#") ? color.trim().substring(1) : color.trim();
+        if (!hex.matches("[0-9a-fA-F]{6}")) {
+            return null;
+        }
+        return Integer.parseInt(hex, 16);
+    }
+
+    public static String toHex(int rgb) {
+        return String.format("#%06x", rgb & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,50 @@
+package hr.algebra.photoapp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+// Utility Pattern
+// SHA-256 of stored content, as lowercase hex
+public class ContentHash {
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    public static String sha256(byte[] data) {
+        return hex(newDigest().digest(data));
+    }
+
+    // reads the stream to its end in small chunks, for files that should not be held in memory
+    public static String sha256(InputStream data) throws IOException {
+        DigestInputStream digesting = new DigestInputStream(data, newDigest());
+        digesting.transferTo(OutputStream.nullOutputStream());
+        return hex(digesting.getMessageDigest().digest());
+    }
+
+    // for hashing while the bytes are copied somewhere else, e.g. through a DigestInputStream
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    // clients may send upper case; anything else is not a hash we could have stored
+    public static String normalize(String sha256) {
+        if (sha256 == null) {
+            return null;
+        }
+        String hash = sha256.trim().toLowerCase();
+        return SHA256_HEX.matcher(hash).matches() ? hash : null;
+    }
+}
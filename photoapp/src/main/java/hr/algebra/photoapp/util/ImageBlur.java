@@ -0,0 +1,153 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+
+// Strategy Pattern (box or Gaussian) + Fork/Join Pattern
+// Separable blur with running sums, so the cost per pixel does not depend on the radius
+public class ImageBlur {
+
+    public enum Mode {
+        BOX,      // single box filter of the given radius
+        GAUSSIAN  // three box passes approximating a Gaussian with sigma = radius
+    }
+
+    public static final int MAX_RADIUS = 200;
+
+    // rows handled together so the transposed writes land in short contiguous runs
+    private static final int TILE_ROWS = 16;
+
+    public static BufferedImage blur(BufferedImage original, int radius, Mode mode) {
+        BufferedImage source = PixelBuffers.toIntImage(original);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage result = PixelBuffers.newImage(width, height, PixelBuffers.hasAlpha(source));
+
+        int[] radii = radii(radius, mode);
+        int[] transposed = new int[width * height];
+        pass(PixelBuffers.pixels(source), transposed, width, height, radii);
+        pass(transposed, PixelBuffers.pixels(result), height, width, radii);
+        return result;
+    }
+
+    // blurs src into dst (which may be src itself); scratch must hold at least width * height ints
+    public static void blur(int[] src, int[] dst, int[] scratch, int width, int height, int radius, Mode mode) {
+        int[] radii = radii(radius, mode);
+        pass(src, scratch, width, height, radii);
+        pass(scratch, dst, height, width, radii);
+    }
+
+    // Box radii for each pass; Gaussian sizes follow the usual n-box approximation
+    static int[] radii(int radius, Mode mode) {
+        int r = Math.max(1, Math.min(radius, MAX_RADIUS));
+        if (mode == Mode.BOX) {
+            return new int[]{r};
+        }
+
+        int passes = 3;
+        double sigma = r;
+        int lower = (int) Math.floor(Math.sqrt(12 * sigma * sigma / passes + 1));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        int lowerCount = (int) Math.round(
+                (12 * sigma * sigma - passes * lower * lower - 4 * passes * lower - 3 * passes)
+                        / (-4.0 * lower - 4));
+
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            int size = i < lowerCount ? lower : upper;
+            radii[i] = Math.max(0, (size - 1) / 2);
+        }
+        return radii;
+    }
+
+    // Blurs every row of src (width x height) and writes the result transposed into dst.
+    // Channels travel in pairs inside one long (R|B and A|G, 32-bit lanes), halving the work.
+    private static void pass(int[] src, int[] dst, int width, int height, int[] radii) {
+        ParallelBands.forEachBand(height, width, (fromRow, toRow) -> {
+            long[] redBlue = new long[width];
+            long[] alphaGreen = new long[width];
+            long[] tempRedBlue = new long[width];
+            long[] tempAlphaGreen = new long[width];
+            int[] tile = new int[TILE_ROWS * width];
+
+            for (int tileStart = fromRow; tileStart < toRow; tileStart += TILE_ROWS) {
+                int rows = Math.min(TILE_ROWS, toRow - tileStart);
+
+                for (int k = 0; k < rows; k++) {
+                    int rowOffset = (tileStart + k) * width;
+                    for (int x = 0; x < width; x++) {
+                        int p = src[rowOffset + x];
+                        redBlue[x] = ((long) ((p >> 16) & 0xff) << 32) | (p & 0xff);
+                        alphaGreen[x] = ((long) (p >>> 24) << 32) | ((p >> 8) & 0xff);
+                    }
+
+                    long[] inRb = redBlue, outRb = tempRedBlue;
+                    long[] inAg = alphaGreen, outAg = tempAlphaGreen;
+                    for (int radius : radii) {
+                        boxLine(inRb, outRb, width, radius);
+                        boxLine(inAg, outAg, width, radius);
+                        long[] swap = inRb;
+                        inRb = outRb;
+                        outRb = swap;
+                        swap = inAg;
+                        inAg = outAg;
+                        outAg = swap;
+                    }
+
+                    int tileOffset = k * width;
+                    for (int x = 0; x < width; x++) {
+                        long rb = inRb[x];
+                        long ag = inAg[x];
+                        tile[tileOffset + x] = ((int) (ag >>> 32) << 24) | ((int) (rb >>> 32) << 16)
+                                | ((int) ag << 8) | (int) rb;
+                    }
+                }
+
+                for (int x = 0; x < width; x++) {
+                    int dstOffset = x * height + tileStart;
+                    for (int k = 0; k < rows; k++) {
+                        dst[dstOffset + k] = tile[k * width + x];
+                    }
+                }
+            }
+        });
+    }
+
+    // 24 fraction bits: a lane's product stays below 2^32 for any window up to MAX_RADIUS
+    private static final int FRACTION_BITS = 24;
+    private static final long LANE_ROUNDING = 0x0080_0000_0080_0000L;
+    private static final long LANE_MASK = 0x0000_00ff_0000_00ffL;
+
+    // Running-sum box filter over a line of two packed channels, edges extended.
+    // The multiplier is rounded to nearest; with 24 fraction bits its error stays too small to push a
+    // full-white window past 255, so a lane never carries into its neighbour.
+    private static void boxLine(long[] in, long[] out, int length, int radius) {
+        int window = 2 * radius + 1;
+        long multiplier = ((1L << FRACTION_BITS) + window / 2) / window;
+        int last = length - 1;
+
+        long sum = (radius + 1) * in[0];
+        for (int i = 1; i <= radius; i++) {
+            sum += in[Math.min(i, last)];
+        }
+
+        // edges clamp their indices, the middle stretch runs without bounds checks of its own
+        int headEnd = Math.min(radius, length);
+        int tailStart = Math.max(headEnd, length - radius - 1);
+
+        for (int i = 0; i < headEnd; i++) {
+            out[i] = ((sum * multiplier + LANE_ROUNDING) >>> FRACTION_BITS) & LANE_MASK;
+            sum += in[Math.min(i + radius + 1, last)] - in[0];
+        }
+        for (int i = headEnd; i < tailStart; i++) {
+            out[i] = ((sum * multiplier + LANE_ROUNDING) >>> FRACTION_BITS) & LANE_MASK;
+            sum += in[i + radius + 1] - in[i - radius];
+        }
+        for (int i = tailStart; i < length; i++) {
+            out[i] = ((sum * multiplier + LANE_ROUNDING) >>> FRACTION_BITS) & LANE_MASK;
+            sum += in[last] - in[Math.max(i - radius, 0)];
+        }
+    }
+}
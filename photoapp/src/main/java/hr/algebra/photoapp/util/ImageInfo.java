@@ -0,0 +1,67 @@
+package hr.algebra.photoapp.util;
+
+// Value Object Pattern
+// Image properties read from the encoded header, without decoding any pixels
+public class ImageInfo {
+
+    // EXIF orientation values; 5-8 are stored rotated by a quarter turn
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private final int width;
+    private final int height;
+    private final String format;
+    private final String mimeType;
+    private final int orientation;
+    private final boolean alpha;
+    private final String colorSpace;
+
+    ImageInfo(int width, int height, String format, String mimeType,
+              int orientation, boolean alpha, String colorSpace) {
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.mimeType = mimeType;
+        this.orientation = orientation;
+        this.alpha = alpha;
+        this.colorSpace = colorSpace;
+    }
+
+    // stored pixel width, before orientation is applied
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    public String getColorSpace() {
+        return colorSpace;
+    }
+
+    public int getLongEdge() {
+        return Math.max(width, height);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dx%d %s%s orientation=%d",
+                format, width, height, colorSpace, alpha ? "+alpha" : "", orientation);
+    }
+}
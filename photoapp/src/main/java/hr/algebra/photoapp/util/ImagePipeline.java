@@ -0,0 +1,263 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+// Builder Pattern + Pipeline Pattern
+// Plans the requested operations so per-pixel steps share one pass and buffers are reused
+public class ImagePipeline {
+
+    private final int width;
+    private final int height;
+    private final ImageResampler.Quality quality;
+    private final List<PixelKernels.Kernel> kernels;
+    private final int blurRadius;
+    private final ImageBlur.Mode blurMode;
+    private final boolean opaque;
+
+    private ImagePipeline(Builder builder) {
+        this.width = builder.width;
+        this.height = builder.height;
+        this.quality = builder.quality;
+        this.kernels = List.copyOf(builder.kernels);
+        this.blurRadius = builder.blurRadius;
+        this.blurMode = builder.blurMode;
+        this.opaque = builder.opaque;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isEmpty() {
+        return width <= 0 && height <= 0 && kernels.isEmpty() && blurRadius <= 0;
+    }
+
+    public Result run(BufferedImage original) {
+        MemoryTracker memory = new MemoryTracker();
+
+        BufferedImage source = PixelBuffers.toIntImage(original);
+        int w = source.getWidth();
+        int h = source.getHeight();
+        int[] pixels = PixelBuffers.pixels(source);
+        boolean alpha = PixelBuffers.hasAlpha(source);
+
+        // a converted copy already belongs to us and can be modified in place
+        boolean owned = source != original;
+        if (owned) {
+            memory.allocate(w, h);
+        }
+
+        List<PixelKernels.Kernel> perPixel = new ArrayList<>(kernels);
+        if (opaque && alpha) {
+            perPixel.add(PixelKernels.FLATTEN);
+            alpha = false;
+        }
+
+        int[] target = targetSize(w, h);
+        boolean resize = target[0] != w || target[1] != h;
+        // per-pixel work is cheapest on whichever side of the resize has fewer pixels
+        boolean resizeFirst = resize && (long) target[0] * target[1] <= (long) w * h;
+
+        if (resizeFirst) {
+            int[] resized = ImageResampler.resample(pixels, w, h, target[0], target[1], quality);
+            memory.allocate(target[0], target[1]);
+            if (owned) {
+                memory.release(w, h);
+            }
+            pixels = resized;
+            w = target[0];
+            h = target[1];
+            owned = true;
+        }
+
+        if (!perPixel.isEmpty()) {
+            int[] out = owned ? pixels : new int[w * h];
+            if (!owned) {
+                memory.allocate(w, h);
+            }
+            PixelKernels.applyFused(pixels, out, w, h, perPixel);
+            pixels = out;
+            owned = true;
+        }
+
+        if (resize && !resizeFirst) {
+            int[] resized = ImageResampler.resample(pixels, w, h, target[0], target[1], quality);
+            memory.allocate(target[0], target[1]);
+            if (owned) {
+                memory.release(w, h);
+            }
+            pixels = resized;
+            w = target[0];
+            h = target[1];
+            owned = true;
+        }
+
+        if (blurRadius > 0) {
+            int[] scratch = new int[w * h];
+            memory.allocate(w, h);
+            int[] out = owned ? pixels : new int[w * h];
+            if (!owned) {
+                memory.allocate(w, h);
+            }
+            ImageBlur.blur(pixels, out, scratch, w, h, blurRadius, blurMode);
+            memory.release(w, h);
+            pixels = out;
+            owned = true;
+        }
+
+        if (!owned) {
+            return new Result(original, memory.peak);
+        }
+        return new Result(PixelBuffers.wrap(pixels, w, h, alpha), memory.peak);
+    }
+
+    // Working memory run() would allocate for a width x height int source, mirroring its steps,
+    // so callers can reserve it before anything is decoded
+    public long estimatePeakBytes(int w, int h) {
+        MemoryTracker memory = new MemoryTracker();
+        int[] target = targetSize(w, h);
+        boolean resize = target[0] != w || target[1] != h;
+        boolean resizeFirst = resize && (long) target[0] * target[1] <= (long) w * h;
+        boolean owned = false;
+
+        if (resizeFirst) {
+            memory.allocate(target[0], target[1]);
+            w = target[0];
+            h = target[1];
+            owned = true;
+        }
+        // opaque output may need a flattening pass even without kernels
+        if ((!kernels.isEmpty() || opaque) && !owned) {
+            memory.allocate(w, h);
+            owned = true;
+        }
+        if (resize && !resizeFirst) {
+            memory.allocate(target[0], target[1]);
+            memory.release(w, h);
+            w = target[0];
+            h = target[1];
+            owned = true;
+        }
+        if (blurRadius > 0) {
+            memory.allocate(w, h);
+            if (!owned) {
+                memory.allocate(w, h);
+            }
+        }
+        return memory.peak;
+    }
+
+    // same rules as ImageProcessor.resize: a missing side keeps the aspect ratio
+    private int[] targetSize(int w, int h) {
+        if (width <= 0 && height <= 0) {
+            return new int[]{w, h};
+        }
+
+        int tw = width;
+        int th = height;
+        if (tw <= 0) {
+            tw = Math.max(1, (int) (w * ((double) th / h)));
+        }
+        if (th <= 0) {
+            th = Math.max(1, (int) (h * ((double) tw / w)));
+        }
+        return new int[]{tw, th};
+    }
+
+    public static class Result {
+
+        private final BufferedImage image;
+        private final long peakBytes;
+
+        Result(BufferedImage image, long peakBytes) {
+            this.image = image;
+            this.peakBytes = peakBytes;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        // largest amount of pixel memory the pipeline held at once, excluding the decoded source
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+    }
+
+    public static class Builder {
+
+        private int width;
+        private int height;
+        private ImageResampler.Quality quality = ImageResampler.Quality.LANCZOS3;
+        private final List<PixelKernels.Kernel> kernels = new ArrayList<>();
+        private int blurRadius;
+        private ImageBlur.Mode blurMode = ImageBlur.Mode.GAUSSIAN;
+        private boolean opaque;
+
+        public Builder resize(Integer width, Integer height) {
+            this.width = width != null ? Math.max(0, width) : 0;
+            this.height = height != null ? Math.max(0, height) : 0;
+            return this;
+        }
+
+        public Builder quality(ImageResampler.Quality quality) {
+            this.quality = quality;
+            return this;
+        }
+
+        public Builder sepia(boolean sepia) {
+            return sepia ? kernel(PixelKernels.SEPIA) : this;
+        }
+
+        // after sepia, before gamma
+        public Builder colors(ColorMatrix matrix) {
+            return matrix != null && !matrix.isIdentity() ? kernel(PixelKernels.colorMatrix(matrix)) : this;
+        }
+
+        public Builder gamma(Double gamma) {
+            return gamma != null && gamma != 1 ? kernel(PixelKernels.gamma(gamma)) : this;
+        }
+
+        public Builder kernel(PixelKernels.Kernel kernel) {
+            kernels.add(kernel);
+            return this;
+        }
+
+        public Builder blur(int radius) {
+            return blur(radius, ImageBlur.Mode.GAUSSIAN);
+        }
+
+        public Builder blur(int radius, ImageBlur.Mode mode) {
+            this.blurRadius = Math.max(0, radius);
+            this.blurMode = mode;
+            return this;
+        }
+
+        // output will be encoded without alpha (JPEG), so transparency is flattened in the same pass
+        public Builder opaque(boolean opaque) {
+            this.opaque = opaque;
+            return this;
+        }
+
+        public ImagePipeline build() {
+            return new ImagePipeline(this);
+        }
+    }
+
+    private static final class MemoryTracker {
+
+        private long current;
+        private long peak;
+
+        void allocate(int width, int height) {
+            current += (long) width * height * Integer.BYTES;
+            peak = Math.max(peak, current);
+        }
+
+        void release(int width, int height) {
+            current -= (long) width * height * Integer.BYTES;
+        }
+    }
+}
@@ -1,99 +1,135 @@
 package hr.algebra.photoapp.util;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
+import java.awt.image.ColorModel;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
 
 
 // Utility/Helper Pattern + Strategy Pattern (different filter methods)
 // Provides image processing capabilities (resize, filters, format conversion)
 public class ImageProcessor {
 
+    // long-edge sizes of the derivatives generated for every upload
+    public static final int[] DERIVATIVE_SIZES = {1600, 800, 320};
+
+    // subsampled decodes stay at least this many times larger than the requested size
+    private static final int SUBSAMPLE_OVERSAMPLE = 2;
+
+    // blur strength used when a download asks for blur without a radius
+    public static final int DEFAULT_BLUR_RADIUS = 4;
+
     // dimensions of image
     public static BufferedImage resize(BufferedImage original, int width, int height) {
+        return resize(original, width, height, ImageResampler.Quality.LANCZOS3);
+    }
+
+    public static BufferedImage resize(BufferedImage original, int width, int height,
+                                       ImageResampler.Quality quality) {
         if (width <= 0 && height <= 0) {
             return original;
         }
 
         if (width <= 0) {
-            width = (int) (original.getWidth() * ((double) height / original.getHeight()));
+            width = Math.max(1, (int) (original.getWidth() * ((double) height / original.getHeight())));
         }
         if (height <= 0) {
-            height = (int) (original.getHeight() * ((double) width / original.getWidth()));
+            height = Math.max(1, (int) (original.getHeight() * ((double) width / original.getWidth())));
         }
 
-        Image tmp = original.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        return ImageResampler.resample(original, width, height, quality);
+    }
 
-        Graphics2D g2d = resized.createGraphics();
-        g2d.drawImage(tmp, 0, 0, null);
-        g2d.dispose();
+    // fit inside a square box, keeping aspect ratio (never upscales)
+    public static BufferedImage resizeToFit(BufferedImage original, int maxEdge) {
+        if (original.getWidth() <= maxEdge && original.getHeight() <= maxEdge) {
+            return original;
+        }
 
-        return resized;
+        if (original.getWidth() >= original.getHeight()) {
+            return resize(original, maxEdge, 0);
+        }
+        return resize(original, 0, maxEdge);
     }
 
     // sepia
     public static BufferedImage applySepia(BufferedImage original) {
-        BufferedImage sepia = new BufferedImage(
-                original.getWidth(), original.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-        for (int y = 0; y < original.getHeight(); y++) {
-            for (int x = 0; x < original.getWidth(); x++) {
-                int rgb = original.getRGB(x, y);
-                Color color = new Color(rgb);
-
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-
-                int tr = (int) (0.393 * r + 0.769 * g + 0.189 * b);
-                int tg = (int) (0.349 * r + 0.686 * g + 0.168 * b);
-                int tb = (int) (0.272 * r + 0.534 * g + 0.131 * b);
-
-                tr = Math.min(255, tr);
-                tg = Math.min(255, tg);
-                tb = Math.min(255, tb);
-
-                Color sepiaColor = new Color(tr, tg, tb);
-                sepia.setRGB(x, y, sepiaColor.getRGB());
-            }
-        }
-
-        return sepia;
+        return PixelKernels.apply(original, PixelKernels.SEPIA);
     }
 
     // blur
     public static BufferedImage applyBlur(BufferedImage original) {
-        float[] matrix = {
-                1f/9f, 1f/9f, 1f/9f,
-                1f/9f, 1f/9f, 1f/9f,
-                1f/9f, 1f/9f, 1f/9f
-        };
-
-        Kernel kernel = new Kernel(3, 3, matrix);
-        ConvolveOp op = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
+        return applyBlur(original, DEFAULT_BLUR_RADIUS);
+    }
 
-        return op.filter(original, null);
+    public static BufferedImage applyBlur(BufferedImage original, int radius) {
+        return ImageBlur.blur(original, radius, ImageBlur.Mode.GAUSSIAN);
     }
 
     // format
     public static byte[] convertFormat(BufferedImage image, String format) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        
-        // Is format valid
-        String outputFormat = format.toLowerCase();
-        if (!outputFormat.equals("jpg") && !outputFormat.equals("jpeg") && 
-            !outputFormat.equals("png") && !outputFormat.equals("bmp")) {
-            outputFormat = "jpg";
-        }
-        
+        writeImage(image, format, baos);
+        return baos.toByteArray();
+    }
+
+    public static byte[] convertFormat(BufferedImage image, String format, Integer quality) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeImage(image, format, quality, false, baos);
+        return baos.toByteArray();
+    }
+
+    // PNG at the strongest deflate level: slower to write, same pixels, usually a third smaller than the default
+    public static byte[] encodePngCompact(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0f);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(baos)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return baos.toByteArray();
+    }
+
+    public static void writeImage(BufferedImage image, String format, OutputStream out) throws IOException {
+        writeImage(image, format, null, false, out);
+    }
+
+    // Encodes directly into out; quality (1-100) and progressive only affect JPEG
+    public static void writeImage(BufferedImage image, String format, Integer quality,
+                                  boolean progressive, OutputStream out) throws IOException {
+        String outputFormat = normalizeFormat(format);
+        boolean jpeg = outputFormat.equals("jpg");
+
         // For JPEG, ensure RGB color model
-        if (outputFormat.equals("jpg") || outputFormat.equals("jpeg")) {
+        boolean opaqueImage = image.getType() == BufferedImage.TYPE_INT_RGB
+                || image.getType() == BufferedImage.TYPE_3BYTE_BGR;
+        if (jpeg && !opaqueImage) {
             BufferedImage rgbImage = new BufferedImage(
                     image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
             Graphics2D g = rgbImage.createGraphics();
@@ -101,43 +137,350 @@ public class ImageProcessor {
             g.dispose();
             image = rgbImage;
         }
-        
-        ImageIO.write(image, outputFormat, baos);
-        return baos.toByteArray();
+        writeDirect(image, outputFormat, quality, progressive, out);
+    }
+
+    // Encodes an image the writer can take as it is: no RGB conversion copy, rows are read in order
+    public static void writeDirect(BufferedImage image, String format, Integer quality,
+                                   boolean progressive, OutputStream out) throws IOException {
+        String outputFormat = normalizeFormat(format);
+        boolean jpeg = outputFormat.equals("jpg");
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(outputFormat).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (jpeg) {
+            if (quality != null) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(1, Math.min(100, quality)) / 100f);
+            }
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+        }
+
+        // the JPEG writer never seeks, so it can skip the cache; PNG flushes after every chunk
+        try (ImageOutputStream output = jpeg
+                ? new PassThroughImageOutputStream(out)
+                : new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // Is format valid (jpeg is written as jpg, anything unknown falls back to jpg)
+    public static String normalizeFormat(String format) {
+        String outputFormat = format != null ? format.toLowerCase() : "jpg";
+        if (outputFormat.equals("jpeg")) {
+            return "jpg";
+        }
+        if (!outputFormat.equals("jpg") && !outputFormat.equals("png") && !outputFormat.equals("bmp")) {
+            return "jpg";
+        }
+        return outputFormat;
     }
 
     // load image
     public static BufferedImage loadImage(byte[] imageData) throws IOException {
-        return ImageIO.read(new ByteArrayInputStream(imageData));
+        return loadImage(imageData, null, null);
+    }
+
+    // Decodes no larger than needed for the target size; null targets mean full resolution
+    public static BufferedImage loadImage(byte[] imageData, Integer targetWidth, Integer targetHeight)
+            throws IOException {
+        return loadImage(imageData, targetWidth, targetHeight, null);
+    }
+
+    // Same, limited to a rectangle of the stored image: rows and tiles outside it are skipped by the reader
+    public static BufferedImage loadImage(byte[] imageData, Integer targetWidth, Integer targetHeight,
+                                          Rectangle region) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (region != null) {
+                    param.setSourceRegion(region);
+                    width = region.width;
+                    height = region.height;
+                }
+                int factor = subsamplingFactor(width, height, targetWidth, targetHeight);
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+
+                // decoding straight into an int raster saves a conversion copy later in the pipeline
+                ImageTypeSpecifier intType = imageType(reader, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB);
+                if (intType != null) {
+                    param.setDestinationType(intType);
+                } else if (imageType(reader, BufferedImage.TYPE_3BYTE_BGR) != null) {
+                    // the JPEG reader only offers 3BYTE_BGR but converts into a supplied int image
+                    param.setDestination(PixelBuffers.newImage(
+                            (width + factor - 1) / factor, (height + factor - 1) / factor, false));
+                }
+
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Reads size, format, colour model and EXIF orientation from the header; pixels are not decoded
+    public static ImageInfo probe(byte[] imageData) throws IOException {
+        return probe(new ByteArrayInputStream(imageData));
+    }
+
+    // same, reading only as much of the stream as the header takes
+    public static ImageInfo probe(InputStream imageData) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(imageData)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+
+                String format = reader.getFormatName().toLowerCase();
+                String[] mimeTypes = reader.getOriginatingProvider().getMIMETypes();
+                String mimeType = mimeTypes != null && mimeTypes.length > 0 ? mimeTypes[0] : "image/" + format;
+
+                ColorModel colorModel = rawColorModel(reader);
+                boolean alpha = colorModel != null && colorModel.hasAlpha();
+                String colorSpace = colorModel != null ? colorSpaceName(colorModel.getColorSpace()) : "UNKNOWN";
+
+                return new ImageInfo(reader.getWidth(0), reader.getHeight(0), format, mimeType,
+                        readOrientation(reader), alpha, colorSpace);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // CMYK/YCCK JPEGs have no raw type the JDK can describe
+    private static ColorModel rawColorModel(ImageReader reader) {
+        try {
+            ImageTypeSpecifier raw = reader.getRawImageType(0);
+            return raw != null ? raw.getColorModel() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String colorSpaceName(ColorSpace colorSpace) {
+        switch (colorSpace.getType()) {
+            case ColorSpace.TYPE_RGB: return "RGB";
+            case ColorSpace.TYPE_GRAY: return "GRAY";
+            case ColorSpace.TYPE_CMYK: return "CMYK";
+            case ColorSpace.TYPE_YCbCr: return "YCbCr";
+            default: return "OTHER";
+        }
+    }
+
+    // Orientation tag from the JPEG APP1 (Exif) segment; other formats report normal orientation
+    private static int readOrientation(ImageReader reader) {
+        try {
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata == null || !"javax_imageio_jpeg_image_1.0".equals(metadata.getNativeMetadataFormatName())) {
+                return ImageInfo.ORIENTATION_NORMAL;
+            }
+
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+            org.w3c.dom.NodeList markers = root.getElementsByTagName("unknown");
+            for (int i = 0; i < markers.getLength(); i++) {
+                IIOMetadataNode marker = (IIOMetadataNode) markers.item(i);
+                if ("225".equals(marker.getAttribute("MarkerTag")) && marker.getUserObject() instanceof byte[] data) {
+                    int orientation = exifOrientation(data);
+                    if (orientation > 0) {
+                        return orientation;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // unreadable metadata is treated like missing metadata
+        }
+        return ImageInfo.ORIENTATION_NORMAL;
+    }
+
+    // Walks IFD0 of an "Exif\0\0" payload for tag 0x0112; returns 0 when absent
+    static int exifOrientation(byte[] app1) {
+        if (app1.length < 14 || app1[0] != 'E' || app1[1] != 'x' || app1[2] != 'i' || app1[3] != 'f') {
+            return 0;
+        }
+
+        ByteBuffer tiff = ByteBuffer.wrap(app1, 6, app1.length - 6).slice();
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M') {
+            return 0;
+        }
+
+        int ifd = tiff.getInt(4);
+        if (ifd < 8 || ifd + 2 > tiff.limit()) {
+            return 0;
+        }
+
+        int entries = tiff.getShort(ifd) & 0xffff;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            if ((tiff.getShort(entry) & 0xffff) == 0x0112) {
+                int value = tiff.getShort(entry + 8) & 0xffff;
+                return value >= 1 && value <= 8 ? value : 0;
+            }
+        }
+        return 0;
+    }
+
+    // Turns stored pixels upright according to the EXIF orientation (1 = already upright)
+    public static BufferedImage applyOrientation(BufferedImage original, int orientation) {
+        if (orientation <= ImageInfo.ORIENTATION_NORMAL || orientation > 8) {
+            return original;
+        }
+
+        BufferedImage source = PixelBuffers.toIntImage(original);
+        int w = source.getWidth();
+        int h = source.getHeight();
+        boolean swap = orientation >= 5;
+        int dw = swap ? h : w;
+        BufferedImage result = PixelBuffers.newImage(dw, swap ? w : h, PixelBuffers.hasAlpha(source));
+
+        int[] src = PixelBuffers.pixels(source);
+        int[] dst = PixelBuffers.pixels(result);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int dx, dy;
+                switch (orientation) {
+                    case 2: dx = w - 1 - x; dy = y; break;
+                    case 3: dx = w - 1 - x; dy = h - 1 - y; break;
+                    case 4: dx = x; dy = h - 1 - y; break;
+                    case 5: dx = y; dy = x; break;
+                    case 6: dx = h - 1 - y; dy = x; break;
+                    case 7: dx = h - 1 - y; dy = w - 1 - x; break;
+                    default: dx = y; dy = w - 1 - x; break;
+                }
+                dst[dy * dw + dx] = src[y * w + x];
+            }
+        }
+        return result;
+    }
+
+    // Decodes for a target size given in upright terms and turns the pixels upright
+    public static BufferedImage loadUpright(byte[] imageData, Integer targetWidth, Integer targetHeight,
+                                            int orientation) throws IOException {
+        return loadUpright(imageData, targetWidth, targetHeight, orientation, null);
+    }
+
+    // storedRegion is in stored pixel coordinates, see storedRegion()
+    public static BufferedImage loadUpright(byte[] imageData, Integer targetWidth, Integer targetHeight,
+                                            int orientation, Rectangle storedRegion) throws IOException {
+        // the stored pixels may be a quarter turn away from the requested size
+        boolean quarterTurn = orientation >= 5;
+        BufferedImage image = loadImage(imageData,
+                quarterTurn ? targetHeight : targetWidth, quarterTurn ? targetWidth : targetHeight, storedRegion);
+        return image != null ? applyOrientation(image, orientation) : null;
     }
 
-    // filters
-    public static BufferedImage applyFilters(BufferedImage original, 
-                                            Integer width, Integer height,
-                                            boolean sepia, boolean blur) {
-        BufferedImage processed = original;
+    // Upright size of the raster loadUpright will produce, known from the header alone
+    public static Dimension decodedSize(ImageInfo info, Integer targetWidth, Integer targetHeight, int orientation) {
+        return decodedSize(info, targetWidth, targetHeight, orientation, null);
+    }
+
+    public static Dimension decodedSize(ImageInfo info, Integer targetWidth, Integer targetHeight, int orientation,
+                                        Rectangle storedRegion) {
+        boolean quarterTurn = orientation >= 5;
+        int sourceWidth = storedRegion != null ? storedRegion.width : info.getWidth();
+        int sourceHeight = storedRegion != null ? storedRegion.height : info.getHeight();
+        int factor = subsamplingFactor(sourceWidth, sourceHeight,
+                quarterTurn ? targetHeight : targetWidth, quarterTurn ? targetWidth : targetHeight);
+        int width = (sourceWidth + factor - 1) / factor;
+        int height = (sourceHeight + factor - 1) / factor;
+        return quarterTurn ? new Dimension(height, width) : new Dimension(width, height);
+    }
+
+    // Upright bounds of the stored image
+    public static Rectangle uprightBounds(ImageInfo info, int orientation) {
+        return orientation >= 5
+                ? new Rectangle(0, 0, info.getHeight(), info.getWidth())
+                : new Rectangle(0, 0, info.getWidth(), info.getHeight());
+    }
+
+    // Maps a rectangle of the upright image back onto the stored pixels (the inverse of applyOrientation)
+    public static Rectangle storedRegion(Rectangle upright, ImageInfo info, int orientation) {
+        Point first = storedPoint(upright.x, upright.y, info, orientation);
+        Point last = storedPoint(upright.x + upright.width - 1, upright.y + upright.height - 1, info, orientation);
+        return new Rectangle(Math.min(first.x, last.x), Math.min(first.y, last.y),
+                Math.abs(last.x - first.x) + 1, Math.abs(last.y - first.y) + 1);
+    }
 
-        // Resize first if requested
-        if (width != null && width > 0 || height != null && height > 0) {
-            int w = width != null ? width : 0;
-            int h = height != null ? height : 0;
-            processed = resize(processed, w, h);
+    private static Point storedPoint(int dx, int dy, ImageInfo info, int orientation) {
+        int w = info.getWidth();
+        int h = info.getHeight();
+        switch (orientation) {
+            case 2: return new Point(w - 1 - dx, dy);
+            case 3: return new Point(w - 1 - dx, h - 1 - dy);
+            case 4: return new Point(dx, h - 1 - dy);
+            case 5: return new Point(dy, dx);
+            case 6: return new Point(dy, h - 1 - dx);
+            case 7: return new Point(w - 1 - dy, h - 1 - dx);
+            case 8: return new Point(w - 1 - dy, dx);
+            default: return new Point(dx, dy);
         }
+    }
 
-        // Apply filters
-        if (sepia) {
-            processed = applySepia(processed);
+    // Largest subsampling step that keeps the decode at least SUBSAMPLE_OVERSAMPLE x the target,
+    // leaving the resampler enough pixels to filter instead of decimating outright
+    public static int subsamplingFactor(int sourceWidth, int sourceHeight, Integer targetWidth, Integer targetHeight) {
+        boolean hasWidth = targetWidth != null && targetWidth > 0;
+        boolean hasHeight = targetHeight != null && targetHeight > 0;
+        if (!hasWidth && !hasHeight) {
+            return 1;
         }
-        if (blur) {
-            processed = applyBlur(processed);
+
+        double scaleX = hasWidth ? (double) sourceWidth / targetWidth : Double.MAX_VALUE;
+        double scaleY = hasHeight ? (double) sourceHeight / targetHeight : Double.MAX_VALUE;
+        // with one side given the other follows the aspect ratio, so both scales are equal
+        double scale = Math.min(hasWidth ? scaleX : scaleY, hasHeight ? scaleY : scaleX);
+
+        return Math.max(1, (int) Math.floor(scale / SUBSAMPLE_OVERSAMPLE));
+    }
+
+    private static ImageTypeSpecifier imageType(ImageReader reader, int... bufferedTypes) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while (types.hasNext()) {
+            ImageTypeSpecifier type = types.next();
+            for (int bufferedType : bufferedTypes) {
+                if (type.getBufferedImageType() == bufferedType) {
+                    return type;
+                }
+            }
         }
+        return null;
+    }
 
-        return processed;
+    public static boolean isOpaqueFormat(String format) {
+        String f = format.toLowerCase();
+        return !f.equals("png");
     }
 
-    // image dimensions
-    public static Dimension getImageDimensions(byte[] imageData) throws IOException {
-        BufferedImage image = loadImage(imageData);
-        return new Dimension(image.getWidth(), image.getHeight());
+    public static String mimeType(String format) {
+        String f = format.toLowerCase();
+        if (f.equals("jpg") || f.equals("jpeg")) {
+            return "image/jpeg";
+        }
+        return "image/" + f;
     }
 }
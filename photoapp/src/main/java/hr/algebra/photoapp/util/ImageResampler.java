@@ -0,0 +1,492 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Strategy Pattern (selectable resampling quality)
+// Scales packed int rasters directly, replacing the AWT getScaledInstance path
+public class ImageResampler {
+
+    public enum Quality {
+        NEAREST,     // fastest, blocky
+        BILINEAR,    // good for small changes and upscaling
+        PROGRESSIVE, // repeated 2x box halving, then bilinear
+        LANCZOS3     // sharpest; large reductions are box-halved first
+    }
+
+    // Pull-based source of packed int rows, delivered top to bottom
+    @FunctionalInterface
+    public interface RowSource {
+        void next(int[] row) throws IOException;
+    }
+
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int WEIGHT_ROUND = 1 << (WEIGHT_BITS - 1);
+
+    public static BufferedImage resample(BufferedImage original, int width, int height, Quality quality) {
+        BufferedImage source = PixelBuffers.toIntImage(original);
+        boolean alpha = PixelBuffers.hasAlpha(source);
+
+        int[] result = resample(PixelBuffers.pixels(source),
+                source.getWidth(), source.getHeight(), width, height, quality);
+        return PixelBuffers.wrap(result, width, height, alpha);
+    }
+
+    public static int[] resample(int[] src, int srcWidth, int srcHeight,
+                                 int dstWidth, int dstHeight, Quality quality) {
+        if (dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Target size must be positive");
+        }
+
+        return switch (quality) {
+            case NEAREST -> nearest(src, srcWidth, srcHeight, dstWidth, dstHeight);
+            case BILINEAR -> bilinear(src, srcWidth, srcHeight, dstWidth, dstHeight);
+            case PROGRESSIVE -> progressive(src, srcWidth, srcHeight, dstWidth, dstHeight);
+            case LANCZOS3 -> lanczos3(src, srcWidth, srcHeight, dstWidth, dstHeight);
+        };
+    }
+
+    // Lanczos-3 over a stream of rows with the same output as the LANCZOS3 path, keeping only
+    // the rows the vertical kernel spans
+    public static RowSource lanczos3Rows(RowSource source, int srcWidth, int srcHeight,
+                                         int dstWidth, int dstHeight) {
+        if (dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Target size must be positive");
+        }
+
+        RowSource current = source;
+        int w = srcWidth;
+        int h = srcHeight;
+        while (w / 3 >= dstWidth || h / 3 >= dstHeight) {
+            int nw = w / 3 >= dstWidth ? w / 2 : w;
+            int nh = h / 3 >= dstHeight ? h / 2 : h;
+            current = new HalvingRows(current, w, nw, nh != h);
+            w = nw;
+            h = nh;
+        }
+
+        if (w == dstWidth && h == dstHeight) {
+            return current;
+        }
+        return new LanczosRows(current, w, h, dstWidth, dstHeight);
+    }
+
+    // pixels lanczos3Rows holds at any one time, for memory estimates
+    public static long lanczos3RowPixels(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        long pixels = 0;
+        int w = srcWidth;
+        int h = srcHeight;
+        while (w / 3 >= dstWidth || h / 3 >= dstHeight) {
+            pixels += 2L * w;
+            w = w / 3 >= dstWidth ? w / 2 : w;
+            h = h / 3 >= dstHeight ? h / 2 : h;
+        }
+
+        if (w != dstWidth || h != dstHeight) {
+            int rows = h != dstHeight ? Weights.taps(h, dstHeight) : 0;
+            pixels += w + (long) rows * dstWidth * 5; // window plus the four-channel accumulator
+        }
+        return pixels;
+    }
+
+    // nearest neighbour
+    private static int[] nearest(int[] src, int sw, int sh, int dw, int dh) {
+        int[] dst = new int[dw * dh];
+        int[] xMap = new int[dw];
+        for (int x = 0; x < dw; x++) {
+            xMap[x] = (int) ((x + 0.5) * sw / dw);
+        }
+
+        ParallelBands.forEachBand(dh, dw, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int srcRow = (int) ((y + 0.5) * sh / dh) * sw;
+                int dstRow = y * dw;
+                for (int x = 0; x < dw; x++) {
+                    dst[dstRow + x] = src[srcRow + xMap[x]];
+                }
+            }
+        });
+        return dst;
+    }
+
+    // bilinear, 8-bit fixed point fractions
+    private static int[] bilinear(int[] src, int sw, int sh, int dw, int dh) {
+        int[] dst = new int[dw * dh];
+
+        int[] x0 = new int[dw];
+        int[] x1 = new int[dw];
+        int[] fx = new int[dw];
+        for (int x = 0; x < dw; x++) {
+            double sx = Math.max(0, (x + 0.5) * sw / dw - 0.5);
+            x0[x] = Math.min((int) sx, sw - 1);
+            x1[x] = Math.min(x0[x] + 1, sw - 1);
+            fx[x] = (int) ((sx - (int) sx) * 256);
+        }
+
+        ParallelBands.forEachBand(dh, dw, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                double sy = Math.max(0, (y + 0.5) * sh / dh - 0.5);
+                int y0 = Math.min((int) sy, sh - 1);
+                int y1 = Math.min(y0 + 1, sh - 1);
+                int fy = (int) ((sy - (int) sy) * 256);
+                int row0 = y0 * sw;
+                int row1 = y1 * sw;
+                int dstRow = y * dw;
+
+                for (int x = 0; x < dw; x++) {
+                    int p00 = src[row0 + x0[x]];
+                    int p01 = src[row0 + x1[x]];
+                    int p10 = src[row1 + x0[x]];
+                    int p11 = src[row1 + x1[x]];
+                    int wx = fx[x];
+
+                    int result = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int top = (((p00 >>> shift) & 0xff) << 8) + (((p01 >>> shift) & 0xff) - ((p00 >>> shift) & 0xff)) * wx;
+                        int bottom = (((p10 >>> shift) & 0xff) << 8) + (((p11 >>> shift) & 0xff) - ((p10 >>> shift) & 0xff)) * wx;
+                        int value = ((top << 8) + (bottom - top) * fy + 0x8000) >> 16;
+                        result |= value << shift;
+                    }
+                    dst[dstRow + x] = result;
+                }
+            }
+        });
+        return dst;
+    }
+
+    // halve with a 2x2 box filter while still at least twice the target, then bilinear
+    private static int[] progressive(int[] src, int sw, int sh, int dw, int dh) {
+        int[] current = src;
+        int w = sw;
+        int h = sh;
+
+        while (w / 2 >= dw || h / 2 >= dh) {
+            int nw = w / 2 >= dw ? w / 2 : w;
+            int nh = h / 2 >= dh ? h / 2 : h;
+            current = halve(current, w, h, nw, nh);
+            w = nw;
+            h = nh;
+        }
+
+        if (w == dw && h == dh) {
+            return current == src ? src.clone() : current;
+        }
+        return bilinear(current, w, h, dw, dh);
+    }
+
+    // Lanczos-3 with precomputed fixed-point weight tables, separable passes
+    private static int[] lanczos3(int[] src, int sw, int sh, int dw, int dh) {
+        int[] current = src;
+        int w = sw;
+        int h = sh;
+
+        // Box-halving down to 1.5-3x the target keeps the kernel short without visible quality loss
+        while (w / 3 >= dw || h / 3 >= dh) {
+            int nw = w / 3 >= dw ? w / 2 : w;
+            int nh = h / 3 >= dh ? h / 2 : h;
+            current = halve(current, w, h, nw, nh);
+            w = nw;
+            h = nh;
+        }
+
+        int[] horizontal = w == dw ? current : horizontalPass(current, w, h, dw);
+        if (h == dh) {
+            return horizontal == src ? src.clone() : horizontal;
+        }
+        return verticalPass(horizontal, dw, h, dh);
+    }
+
+    private static int[] horizontalPass(int[] src, int sw, int sh, int dw) {
+        Weights table = Weights.lanczos3(sw, dw);
+        int[] dst = new int[dw * sh];
+
+        ParallelBands.forEachBand(sh, dw, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                horizontalRow(src, y * sw, dst, y * dw, dw, table);
+            }
+        });
+        return dst;
+    }
+
+    private static void horizontalRow(int[] src, int srcRow, int[] dst, int dstRow, int dw, Weights table) {
+        int taps = table.taps;
+        for (int x = 0; x < dw; x++) {
+            int base = srcRow + table.start[x];
+            int offset = x * taps;
+            int a = WEIGHT_ROUND, r = WEIGHT_ROUND, g = WEIGHT_ROUND, b = WEIGHT_ROUND;
+            for (int t = 0; t < taps; t++) {
+                int weight = table.weights[offset + t];
+                int p = src[base + t];
+                a += (p >>> 24) * weight;
+                r += ((p >> 16) & 0xff) * weight;
+                g += ((p >> 8) & 0xff) * weight;
+                b += (p & 0xff) * weight;
+            }
+            dst[dstRow + x] = pack(a, r, g, b);
+        }
+    }
+
+    // walks whole rows so the inner loop stays sequential in memory
+    private static int[] verticalPass(int[] src, int w, int sh, int dh) {
+        Weights table = Weights.lanczos3(sh, dh);
+        int taps = table.taps;
+        int[] dst = new int[w * dh];
+
+        ParallelBands.forEachBand(dh, w, (from, to) -> {
+            int[] acc = new int[w * 4];
+
+            for (int y = from; y < to; y++) {
+                Arrays.fill(acc, WEIGHT_ROUND);
+                int offset = y * taps;
+
+                for (int t = 0; t < taps; t++) {
+                    int weight = table.weights[offset + t];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    int srcRow = (table.start[y] + t) * w;
+                    for (int x = 0, i = 0; x < w; x++, i += 4) {
+                        int p = src[srcRow + x];
+                        acc[i] += (p >>> 24) * weight;
+                        acc[i + 1] += ((p >> 16) & 0xff) * weight;
+                        acc[i + 2] += ((p >> 8) & 0xff) * weight;
+                        acc[i + 3] += (p & 0xff) * weight;
+                    }
+                }
+
+                int dstRow = y * w;
+                for (int x = 0, i = 0; x < w; x++, i += 4) {
+                    dst[dstRow + x] = pack(acc[i], acc[i + 1], acc[i + 2], acc[i + 3]);
+                }
+            }
+        });
+        return dst;
+    }
+
+    // 2x2 box average; a dimension that is not being halved is copied through
+    private static int[] halve(int[] src, int sw, int sh, int dw, int dh) {
+        int[] dst = new int[dw * dh];
+        boolean halveY = dh != sh;
+
+        ParallelBands.forEachBand(dh, dw, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int row0 = (halveY ? y * 2 : y) * sw;
+                int row1 = (halveY ? Math.min(y * 2 + 1, sh - 1) : y) * sw;
+                halveRow(src, row0, src, row1, sw, dst, y * dw, dw);
+            }
+        });
+        return dst;
+    }
+
+    private static void halveRow(int[] src0, int row0, int[] src1, int row1, int sw, int[] dst, int dstRow, int dw) {
+        boolean halveX = dw != sw;
+        for (int x = 0; x < dw; x++) {
+            int x0 = halveX ? x * 2 : x;
+            int x1 = halveX ? Math.min(x * 2 + 1, sw - 1) : x;
+            int p00 = src0[row0 + x0];
+            int p01 = src0[row0 + x1];
+            int p10 = src1[row1 + x0];
+            int p11 = src1[row1 + x1];
+
+            // average two channels at a time (R and B, then A and G)
+            int rb = (p00 & 0x00ff00ff) + (p01 & 0x00ff00ff) + (p10 & 0x00ff00ff) + (p11 & 0x00ff00ff)
+                    + 0x00020002;
+            int ag = ((p00 >>> 8) & 0x00ff00ff) + ((p01 >>> 8) & 0x00ff00ff)
+                    + ((p10 >>> 8) & 0x00ff00ff) + ((p11 >>> 8) & 0x00ff00ff) + 0x00020002;
+            dst[dstRow + x] = ((rb >>> 2) & 0x00ff00ff) | (((ag >>> 2) & 0x00ff00ff) << 8);
+        }
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return (clamp(a >> WEIGHT_BITS) << 24)
+                | (clamp(r >> WEIGHT_BITS) << 16)
+                | (clamp(g >> WEIGHT_BITS) << 8)
+                | clamp(b >> WEIGHT_BITS);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    // 2x2 box average of one or two source rows at a time
+    private static final class HalvingRows implements RowSource {
+
+        private final RowSource source;
+        private final int sw;
+        private final int dw;
+        private final int[] row0;
+        private final int[] row1;
+
+        private HalvingRows(RowSource source, int sw, int dw, boolean halveY) {
+            this.source = source;
+            this.sw = sw;
+            this.dw = dw;
+            this.row0 = new int[sw];
+            this.row1 = halveY ? new int[sw] : row0;
+        }
+
+        @Override
+        public void next(int[] row) throws IOException {
+            source.next(row0);
+            if (row1 != row0) {
+                source.next(row1);
+            }
+            halveRow(row0, 0, row1, 0, sw, row, 0, dw);
+        }
+    }
+
+    // Horizontal pass per row as it arrives, vertical pass over a ring of the last taps rows
+    private static final class LanczosRows implements RowSource {
+
+        private final RowSource source;
+        private final Weights horizontal;
+        private final Weights vertical;
+        private final int dw;
+        private final int[] input;
+        private final int[][] window;
+        private final int[] acc;
+        private int pulled;
+        private int y;
+
+        private LanczosRows(RowSource source, int sw, int sh, int dw, int dh) {
+            this.source = source;
+            this.horizontal = sw != dw ? Weights.lanczos3(sw, dw) : null;
+            this.vertical = sh != dh ? Weights.lanczos3(sh, dh) : null;
+            this.dw = dw;
+            this.input = horizontal != null ? new int[sw] : null;
+            this.window = vertical != null ? new int[vertical.taps][dw] : null;
+            this.acc = vertical != null ? new int[dw * 4] : null;
+        }
+
+        @Override
+        public void next(int[] row) throws IOException {
+            if (vertical == null) {
+                pull(row);
+                return;
+            }
+
+            // start[] never decreases, so the ring always holds exactly the rows this output needs
+            int taps = vertical.taps;
+            int first = vertical.start[y];
+            while (pulled < first + taps) {
+                pull(window[pulled % taps]);
+                pulled++;
+            }
+
+            Arrays.fill(acc, WEIGHT_ROUND);
+            int offset = y * taps;
+            for (int t = 0; t < taps; t++) {
+                int weight = vertical.weights[offset + t];
+                if (weight == 0) {
+                    continue;
+                }
+                int[] src = window[(first + t) % taps];
+                for (int x = 0, i = 0; x < dw; x++, i += 4) {
+                    int p = src[x];
+                    acc[i] += (p >>> 24) * weight;
+                    acc[i + 1] += ((p >> 16) & 0xff) * weight;
+                    acc[i + 2] += ((p >> 8) & 0xff) * weight;
+                    acc[i + 3] += (p & 0xff) * weight;
+                }
+            }
+
+            for (int x = 0, i = 0; x < dw; x++, i += 4) {
+                row[x] = pack(acc[i], acc[i + 1], acc[i + 2], acc[i + 3]);
+            }
+            y++;
+        }
+
+        private void pull(int[] dst) throws IOException {
+            if (horizontal == null) {
+                source.next(dst);
+                return;
+            }
+            source.next(input);
+            horizontalRow(input, 0, dst, 0, dw, horizontal);
+        }
+    }
+
+    // Per output pixel: first source index and a fixed number of fixed-point weights
+    private static final class Weights {
+
+        final int taps;
+        final int[] start;
+        final int[] weights;
+
+        private Weights(int taps, int[] start, int[] weights) {
+            this.taps = taps;
+            this.start = start;
+            this.weights = weights;
+        }
+
+        static Weights lanczos3(int srcLength, int dstLength) {
+            double scale = (double) dstLength / srcLength;
+            double filterScale = Math.max(1.0, 1.0 / scale); // widen the kernel when shrinking
+            double support = 3.0 * filterScale;
+            int taps = taps(srcLength, dstLength);
+
+            int[] start = new int[dstLength];
+            int[] weights = new int[dstLength * taps];
+            double[] raw = new double[taps];
+
+            for (int i = 0; i < dstLength; i++) {
+                double center = (i + 0.5) / scale - 0.5;
+                int left = (int) Math.ceil(center - support);
+                int right = (int) Math.floor(center + support);
+                int first = Math.max(0, Math.min(left, srcLength - taps));
+                start[i] = first;
+
+                Arrays.fill(raw, 0);
+                double sum = 0;
+                for (int j = left; j <= right; j++) {
+                    double weight = kernel((j - center) / filterScale);
+                    if (weight == 0) {
+                        continue;
+                    }
+                    // samples past the edge are folded onto the edge pixel
+                    int index = Math.max(0, Math.min(j, srcLength - 1)) - first;
+                    if (index >= 0 && index < taps) {
+                        raw[index] += weight;
+                        sum += weight;
+                    }
+                }
+
+                int offset = i * taps;
+                int total = 0;
+                int peak = 0;
+                for (int t = 0; t < taps; t++) {
+                    int w = (int) Math.round(raw[t] / sum * WEIGHT_ONE);
+                    weights[offset + t] = w;
+                    total += w;
+                    if (w > weights[offset + peak]) {
+                        peak = t;
+                    }
+                }
+                // rounding drift goes to the strongest tap so flat areas stay exact
+                weights[offset + peak] += WEIGHT_ONE - total;
+            }
+
+            return new Weights(taps, start, weights);
+        }
+
+        static int taps(int srcLength, int dstLength) {
+            // same arithmetic as lanczos3, so the rounding of the support matches
+            double scale = (double) dstLength / srcLength;
+            double filterScale = Math.max(1.0, 1.0 / scale);
+            return Math.min(srcLength, (int) Math.ceil(3.0 * filterScale * 2) + 1);
+        }
+
+        private static double kernel(double x) {
+            if (x == 0) {
+                return 1.0;
+            }
+            if (x <= -3.0 || x >= 3.0) {
+                return 0.0;
+            }
+            double px = Math.PI * x;
+            return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+        }
+    }
+}
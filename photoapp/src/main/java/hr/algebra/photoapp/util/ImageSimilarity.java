@@ -0,0 +1,66 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+
+// Utility Pattern
+// Structural similarity (SSIM) of two images of the same size, on luma over 8x8 blocks: 1 is identical,
+// from about 0.99 re-encoding artefacts are hard to see
+public class ImageSimilarity {
+
+    private static final int BLOCK = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    // 8-bit luma of every pixel, computed once for the reference and reused for each candidate
+    public static int[] luma(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] luma = new int[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                luma[y * width + x] = (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+            }
+        }
+        return luma;
+    }
+
+    // mean SSIM over all whole blocks; images smaller than one block compare as a single block
+    public static double ssim(int[] a, int[] b, int width, int height) {
+        int blockWidth = Math.min(BLOCK, width);
+        int blockHeight = Math.min(BLOCK, height);
+        double total = 0;
+        int blocks = 0;
+
+        for (int by = 0; by + blockHeight <= height; by += blockHeight) {
+            for (int bx = 0; bx + blockWidth <= width; bx += blockWidth) {
+                long sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+                for (int y = by; y < by + blockHeight; y++) {
+                    int offset = y * width;
+                    for (int x = bx; x < bx + blockWidth; x++) {
+                        int va = a[offset + x];
+                        int vb = b[offset + x];
+                        sumA += va;
+                        sumB += vb;
+                        sumAA += va * va;
+                        sumBB += vb * vb;
+                        sumAB += va * vb;
+                    }
+                }
+
+                double n = blockWidth * blockHeight;
+                double meanA = sumA / n;
+                double meanB = sumB / n;
+                double varA = sumAA / n - meanA * meanA;
+                double varB = sumBB / n - meanB * meanB;
+                double cov = sumAB / n - meanA * meanB;
+                total += ((2 * meanA * meanB + C1) * (2 * cov + C2))
+                        / ((meanA * meanA + meanB * meanB + C1) * (varA + varB + C2));
+                blocks++;
+            }
+        }
+        return blocks > 0 ? total / blocks : 1;
+    }
+}
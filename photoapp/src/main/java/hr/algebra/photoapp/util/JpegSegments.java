@@ -0,0 +1,122 @@
+package hr.algebra.photoapp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Utility Pattern
+// Metadata segments of a JPEG that a re-encode has to carry over: APP1 (Exif, XMP) and APP2 ICC profiles.
+// Other APP2 payloads (e.g. MPF) hold offsets into the old file and are left behind.
+public class JpegSegments {
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int APP0 = 0xE0;
+    private static final int APP1 = 0xE1;
+    private static final int APP2 = 0xE2;
+    private static final byte[] ICC_PROFILE = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+
+    // marker, length and payload of each metadata segment, in file order
+    public static List<byte[]> metadata(byte[] jpeg) {
+        List<byte[]> segments = new ArrayList<>();
+        scan(jpeg, segments, null);
+        return segments;
+    }
+
+    // the same file without them; decoded like this, the pixels are the stored values, not converted
+    // from the embedded profile to sRGB
+    public static byte[] withoutMetadata(byte[] jpeg) {
+        ByteArrayOutputStream rest = new ByteArrayOutputStream(jpeg.length);
+        return scan(jpeg, null, rest) ? rest.toByteArray() : jpeg;
+    }
+
+    // segments go after SOI and the encoder's JFIF APP0, before the tables
+    public static byte[] insert(byte[] jpeg, List<byte[]> segments) {
+        if (segments.isEmpty() || !isJpeg(jpeg)) {
+            return jpeg;
+        }
+
+        int at = 2;
+        while (at + 4 <= jpeg.length && (jpeg[at] & 0xFF) == 0xFF && (jpeg[at + 1] & 0xFF) == APP0) {
+            at += 2 + length(jpeg, at + 2);
+        }
+        at = Math.min(at, jpeg.length);
+
+        int added = segments.stream().mapToInt(segment -> segment.length).sum();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + added);
+        out.write(jpeg, 0, at);
+        segments.forEach(out::writeBytes);
+        out.write(jpeg, at, jpeg.length - at);
+        return out.toByteArray();
+    }
+
+    // walks the segments up to the scan; false when the file is not a JPEG or ends early
+    private static boolean scan(byte[] jpeg, List<byte[]> metadata, ByteArrayOutputStream rest) {
+        if (!isJpeg(jpeg)) {
+            return false;
+        }
+        if (rest != null) {
+            rest.write(jpeg, 0, 2);
+        }
+
+        int at = 2;
+        while (at + 4 <= jpeg.length) {
+            if ((jpeg[at] & 0xFF) != 0xFF) {
+                return false;
+            }
+            int marker = jpeg[at + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                at++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                if (rest != null) {
+                    rest.write(jpeg, at, jpeg.length - at);
+                }
+                return true;
+            }
+
+            int end = at + 2 + length(jpeg, at + 2);
+            if (end > jpeg.length) {
+                return false;
+            }
+            if (isMetadata(jpeg, at, marker)) {
+                if (metadata != null) {
+                    metadata.add(Arrays.copyOfRange(jpeg, at, end));
+                }
+            } else if (rest != null) {
+                rest.write(jpeg, at, end - at);
+            }
+            at = end;
+        }
+        return false;
+    }
+
+    private static boolean isMetadata(byte[] jpeg, int at, int marker) {
+        if (marker == APP1) {
+            return true;
+        }
+        if (marker != APP2 || at + 4 + ICC_PROFILE.length > jpeg.length) {
+            return false;
+        }
+        for (int i = 0; i < ICC_PROFILE.length; i++) {
+            if (jpeg[at + 4 + i] != ICC_PROFILE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isJpeg(byte[] jpeg) {
+        return jpeg.length >= 4 && (jpeg[0] & 0xFF) == 0xFF && (jpeg[1] & 0xFF) == SOI;
+    }
+
+    // segment length, its own two bytes included
+    private static int length(byte[] jpeg, int at) {
+        return ((jpeg[at] & 0xFF) << 8) | (jpeg[at + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,57 @@
+package hr.algebra.photoapp.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Fork/Join Pattern
+// Splits an image into horizontal row bands and processes them on the common ForkJoin pool
+public class ParallelBands {
+
+    // below this many pixels per band the fork overhead outweighs the gain
+    private static final int MIN_PIXELS_PER_BAND = 64 * 1024;
+
+    @FunctionalInterface
+    public interface BandTask {
+        void run(int fromRow, int toRow);
+    }
+
+    public static void forEachBand(int rows, int rowWidth, BandTask task) {
+        int grain = Math.max(1, MIN_PIXELS_PER_BAND / Math.max(1, rowWidth));
+
+        if (rows <= grain || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+            task.run(0, rows);
+            return;
+        }
+
+        ForkJoinPool.commonPool().invoke(new BandAction(task, 0, rows, grain));
+    }
+
+    private static final class BandAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BandTask task;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        private BandAction(BandTask task, int from, int to, int grain) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                task.run(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandAction(task, from, middle, grain),
+                    new BandAction(task, middle, to, grain));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package hr.algebra.photoapp.util;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Adapter Pattern
+// Write-only ImageOutputStream that hands bytes straight to an OutputStream, with no cache.
+// Only usable by writers that never seek back (the JPEG writer); PNG patches chunk lengths.
+class PassThroughImageOutputStream extends ImageOutputStreamImpl {
+
+    private final OutputStream out;
+
+    PassThroughImageOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        out.write(b);
+        streamPos++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        out.write(b, off, len);
+        streamPos += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos != streamPos) {
+            throw new IOException("Stream is not seekable");
+        }
+    }
+
+    // the underlying stream belongs to the caller and stays open
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        super.close();
+    }
+}
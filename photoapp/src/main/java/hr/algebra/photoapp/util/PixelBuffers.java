@@ -0,0 +1,71 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+// Utility/Helper Pattern
+// Gives direct access to packed int pixels so image kernels can skip getRGB/setRGB
+public class PixelBuffers {
+
+    // image backed by a plain int[] (TYPE_INT_RGB or TYPE_INT_ARGB), converting only if needed
+    public static BufferedImage toIntImage(BufferedImage image) {
+        if (isPlainIntImage(image)) {
+            return image;
+        }
+
+        BufferedImage converted = newImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha());
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    // backing array of an image returned by toIntImage or newImage
+    public static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public static BufferedImage newImage(int width, int height, boolean alpha) {
+        return new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    // wraps an existing pixel array without copying it
+    public static BufferedImage wrap(int[] pixels, int width, int height, boolean alpha) {
+        int[] masks = alpha
+                ? new int[]{0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000}
+                : new int[]{0x00ff0000, 0x0000ff00, 0x000000ff};
+        ColorModel colorModel = alpha
+                ? ColorModel.getRGBdefault()
+                : new DirectColorModel(24, masks[0], masks[1], masks[2]);
+        WritableRaster raster = Raster.createPackedRaster(
+                new DataBufferInt(pixels, width * height), width, height, width, masks, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    public static boolean hasAlpha(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_INT_ARGB;
+    }
+
+    private static boolean isPlainIntImage(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return false;
+        }
+
+        // sub-images share a larger buffer and cannot be addressed as y * width + x
+        Raster raster = image.getRaster();
+        return raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && sm.getScanlineStride() == image.getWidth()
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getSize() == image.getWidth() * image.getHeight();
+    }
+}
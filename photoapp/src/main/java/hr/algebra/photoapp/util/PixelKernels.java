@@ -0,0 +1,154 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+// Strategy Pattern (interchangeable per-pixel kernels)
+// Per-pixel colour filters on packed int buffers, fixed-point math, run in parallel row bands
+public class PixelKernels {
+
+    // Processes pixels [from, to) of src into dst; src and dst may be the same array
+    @FunctionalInterface
+    public interface Kernel {
+        void apply(int[] src, int[] dst, int from, int to);
+    }
+
+    // fixed-point scale of colour matrix coefficients (1024)
+    public static final int COLOR_SHIFT = 10;
+
+    // SIMD kernels need the incubating module (--add-modules jdk.incubator.vector);
+    // -Dphotoapp.vector=false forces the scalar loops, e.g. to compare the two
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && Boolean.parseBoolean(System.getProperty("photoapp.vector", "true"));
+
+    // coefficients scaled by 1024
+    public static final Kernel SEPIA = (src, dst, from, to) -> {
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            int r = (p >> 16) & 0xff;
+            int g = (p >> 8) & 0xff;
+            int b = p & 0xff;
+
+            int tr = (402 * r + 787 * g + 194 * b) >> 10;
+            int tg = (357 * r + 702 * g + 172 * b) >> 10;
+            int tb = (279 * r + 547 * g + 134 * b) >> 10;
+
+            dst[i] = (p & 0xff000000)
+                    | (Math.min(255, tr) << 16)
+                    | (Math.min(255, tg) << 8)
+                    | Math.min(255, tb);
+        }
+    };
+
+    // composites transparent pixels onto black, the same result as drawing onto a fresh RGB image
+    public static final Kernel FLATTEN = (src, dst, from, to) -> {
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            int a = p >>> 24;
+            if (a == 255) {
+                dst[i] = p;
+                continue;
+            }
+            int r = (((p >> 16) & 0xff) * a + 127) / 255;
+            int g = (((p >> 8) & 0xff) * a + 127) / 255;
+            int b = ((p & 0xff) * a + 127) / 255;
+            dst[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+    };
+
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    // One pass for the whole colour matrix, alpha kept
+    public static Kernel colorMatrix(ColorMatrix matrix) {
+        int[] m = matrix.toFixedPoint();
+        return VECTORIZED ? VectorColorKernels.colorMatrix(m) : scalarColorMatrix(m);
+    }
+
+    public static Kernel scalarColorMatrix(int[] m) {
+        return (src, dst, from, to) -> colorMatrix(src, dst, from, to, m);
+    }
+
+    // also finishes the vector kernel's tail, which is shorter than one vector
+    static void colorMatrix(int[] src, int[] dst, int from, int to, int[] m) {
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            int r = (p >> 16) & 0xff;
+            int g = (p >> 8) & 0xff;
+            int b = p & 0xff;
+
+            int tr = (m[0] * r + m[1] * g + m[2] * b + m[3]) >> COLOR_SHIFT;
+            int tg = (m[4] * r + m[5] * g + m[6] * b + m[7]) >> COLOR_SHIFT;
+            int tb = (m[8] * r + m[9] * g + m[10] * b + m[11]) >> COLOR_SHIFT;
+
+            dst[i] = (p & 0xff000000)
+                    | (Math.max(0, Math.min(255, tr)) << 16)
+                    | (Math.max(0, Math.min(255, tg)) << 8)
+                    | Math.max(0, Math.min(255, tb));
+        }
+    }
+
+    // Gamma is not affine, so it is a 256-entry table per channel value rather than part of the matrix;
+    // above 1 brightens the midtones, below 1 darkens them
+    public static Kernel gamma(double gamma) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = (int) Math.round(255 * Math.pow(v / 255.0, 1 / gamma));
+        }
+        return (src, dst, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                dst[i] = (p & 0xff000000)
+                        | (table[(p >> 16) & 0xff] << 16)
+                        | (table[(p >> 8) & 0xff] << 8)
+                        | table[p & 0xff];
+            }
+        };
+    }
+
+    // pixels per chunk when fusing kernels, small enough to stay in L1/L2 between kernels
+    private static final int FUSED_CHUNK = 4096;
+
+    // new image with the kernel applied, the original is left untouched
+    public static BufferedImage apply(BufferedImage original, Kernel kernel) {
+        BufferedImage source = PixelBuffers.toIntImage(original);
+        BufferedImage result = PixelBuffers.newImage(
+                source.getWidth(), source.getHeight(), PixelBuffers.hasAlpha(source));
+
+        run(PixelBuffers.pixels(source), PixelBuffers.pixels(result),
+                source.getWidth(), source.getHeight(), kernel);
+        return result;
+    }
+
+    // applies the kernel to the buffer itself
+    public static void applyInPlace(int[] pixels, int width, int height, Kernel kernel) {
+        run(pixels, pixels, width, height, kernel);
+    }
+
+    // Runs several kernels as one pass: each small chunk goes through all of them while it is in cache
+    public static void applyFused(int[] src, int[] dst, int width, int height, List<Kernel> kernels) {
+        if (kernels.isEmpty()) {
+            if (src != dst) {
+                System.arraycopy(src, 0, dst, 0, width * height);
+            }
+            return;
+        }
+
+        ParallelBands.forEachBand(height, width, (fromRow, toRow) -> {
+            int end = toRow * width;
+            for (int from = fromRow * width; from < end; from += FUSED_CHUNK) {
+                int to = Math.min(end, from + FUSED_CHUNK);
+                kernels.get(0).apply(src, dst, from, to);
+                for (int k = 1; k < kernels.size(); k++) {
+                    kernels.get(k).apply(dst, dst, from, to);
+                }
+            }
+        });
+    }
+
+    private static void run(int[] src, int[] dst, int width, int height, Kernel kernel) {
+        ParallelBands.forEachBand(height, width,
+                (fromRow, toRow) -> kernel.apply(src, dst, fromRow * width, toRow * width));
+    }
+}
@@ -0,0 +1,57 @@
+package hr.algebra.photoapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+// Utility Pattern
+// Where a user's files go: uploads/<user>/<ab>/<cd>/<abcd...>.<ext>, two levels of hex fan-out taken
+// from a random id, so no directory holds more than a few hundred originals and names never collide.
+// Derivatives and tiles sit next to their original, named after it.
+public class StorageLayout {
+
+    private static final String ROOT = "/uploads/";
+    private static final Pattern SAFE_EXTENSION = Pattern.compile("\\.[a-z0-9]{1,10}");
+    private static final Pattern SHARDED = Pattern.compile(
+            "/uploads/[^/]+/([0-9a-f]{2})/([0-9a-f]{2})/\\1\\2[0-9a-f]{28}[^/]*");
+
+    // name relative to the user's directory, keeping the (lowercased) extension when it is a plain one
+    public static String newName(String originalFilename) {
+        return name(UUID.randomUUID(), originalFilename);
+    }
+
+    // the same name every time for the same photo, so a move that was interrupted is redone in place
+    public static String nameFor(long photoId, String originalFilename) {
+        return name(UUID.nameUUIDFromBytes(("photo:" + photoId).getBytes(StandardCharsets.UTF_8)), originalFilename);
+    }
+
+    public static String path(String username, String name) {
+        return ROOT + username + "/" + name;
+    }
+
+    // the part after /uploads/<user>/, shard directories included
+    public static String nameOf(String path, String username) {
+        String prefix = ROOT + username + "/";
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    // originals named by newName; anything else predates the sharded layout
+    public static boolean isSharded(String path) {
+        return path != null && SHARDED.matcher(path).matches();
+    }
+
+    private static String name(UUID uuid, String originalFilename) {
+        String id = uuid.toString().replace("-", "");
+        return id.substring(0, 2) + "/" + id.substring(2, 4) + "/" + id + extension(originalFilename);
+    }
+
+    private static String extension(String filename) {
+        if (filename == null) {
+            return "";
+        }
+        int dot = filename.lastIndexOf('.');
+        String extension = dot >= 0 ? filename.substring(dot).toLowerCase(Locale.ROOT) : "";
+        return SAFE_EXTENSION.matcher(extension).matches() ? extension : "";
+    }
+}
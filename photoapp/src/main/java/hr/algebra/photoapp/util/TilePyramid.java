@@ -0,0 +1,83 @@
+package hr.algebra.photoapp.util;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+// Value Object Pattern
+// Deep Zoom (DZI) layout of an image: level 0 is 1x1, every level doubles up to the full size at maxLevel,
+// each level cut into TILE_SIZE tiles stored as <prefix>/<level>/<column>_<row>.jpg
+public class TilePyramid {
+
+    public static final int TILE_SIZE = 256;
+    public static final String FORMAT = "jpg";
+
+    private final int width;
+    private final int height;
+    private final int maxLevel;
+
+    public TilePyramid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(0, Math.max(width, height) - 1));
+    }
+
+    // the pyramid is cut from the upright image, a quarter turn away from the stored pixels for orientations 5-8
+    public static TilePyramid forStored(int storedWidth, int storedHeight, Integer orientation) {
+        boolean quarterTurn = orientation != null && orientation >= 5;
+        return quarterTurn ? new TilePyramid(storedHeight, storedWidth) : new TilePyramid(storedWidth, storedHeight);
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    // each level halves the next one, rounding up
+    public Dimension levelSize(int level) {
+        int shift = maxLevel - level;
+        return new Dimension(Math.max(1, ceilShift(width, shift)), Math.max(1, ceilShift(height, shift)));
+    }
+
+    public int columns(int level) {
+        return (levelSize(level).width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public int rows(int level) {
+        return (levelSize(level).height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public boolean hasTile(int level, int column, int row) {
+        return level >= 0 && level <= maxLevel
+                && column >= 0 && column < columns(level)
+                && row >= 0 && row < rows(level);
+    }
+
+    public static String tilePath(String prefix, int level, int column, int row) {
+        return prefix + "/" + level + "/" + column + "_" + row + "." + FORMAT;
+    }
+
+    public List<String> tilePaths(String prefix) {
+        List<String> paths = new ArrayList<>();
+        for (int level = 0; level <= maxLevel; level++) {
+            for (int column = 0; column < columns(level); column++) {
+                for (int row = 0; row < rows(level); row++) {
+                    paths.add(tilePath(prefix, level, column, row));
+                }
+            }
+        }
+        return paths;
+    }
+
+    // the .dzi descriptor viewers such as OpenSeadragon read first
+    public String toDzi() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + TILE_SIZE
+                + "\" Overlap=\"0\" Format=\"" + FORMAT + "\">\n"
+                + "    <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n"
+                + "</Image>\n";
+    }
+
+    private static int ceilShift(int value, int shift) {
+        return (int) (((long) value + (1L << shift) - 1) >> shift);
+    }
+}
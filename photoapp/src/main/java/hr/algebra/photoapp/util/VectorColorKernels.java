@@ -0,0 +1,44 @@
+package hr.algebra.photoapp.util;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Strategy Pattern (SIMD implementation of PixelKernels)
+// Colour matrix over as many packed pixels as the CPU's widest vector holds (8 with AVX2, 16 with AVX-512).
+// Only loaded when the jdk.incubator.vector module is present, see PixelKernels.isVectorized()
+class VectorColorKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    static PixelKernels.Kernel colorMatrix(int[] m) {
+        return (src, dst, from, to) -> {
+            int i = from;
+            int bound = from + SPECIES.loopBound(to - from);
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector p = IntVector.fromArray(SPECIES, src, i);
+                IntVector r = p.lanewise(VectorOperators.LSHR, 16).and(0xff);
+                IntVector g = p.lanewise(VectorOperators.LSHR, 8).and(0xff);
+                IntVector b = p.and(0xff);
+
+                IntVector tr = channel(r, g, b, m[0], m[1], m[2], m[3]);
+                IntVector tg = channel(r, g, b, m[4], m[5], m[6], m[7]);
+                IntVector tb = channel(r, g, b, m[8], m[9], m[10], m[11]);
+
+                p.and(0xff000000)
+                        .or(tr.lanewise(VectorOperators.LSHL, 16))
+                        .or(tg.lanewise(VectorOperators.LSHL, 8))
+                        .or(tb)
+                        .intoArray(dst, i);
+            }
+            PixelKernels.colorMatrix(src, dst, i, to, m);
+        };
+    }
+
+    private static IntVector channel(IntVector r, IntVector g, IntVector b, int cr, int cg, int cb, int offset) {
+        return r.mul(cr).add(g.mul(cg)).add(b.mul(cb)).add(offset)
+                .lanewise(VectorOperators.ASHR, PixelKernels.COLOR_SHIFT)
+                .max(0)
+                .min(255);
+    }
+}
@@ -0,0 +1,187 @@
+package hr.algebra.photoapp.service.storage;
+
+import org.gaul.s3proxy.AuthenticationType;
+import org.gaul.s3proxy.S3Proxy;
+import org.jclouds.ContextBuilder;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Multipart uploads, ranged reads and deletes against an in-process S3 stand-in (s3proxy over an
+// in-memory blob store), with the smallest part size S3 allows so a few MB already take several parts
+class S3PhotoStorageStrategyTest {
+
+    private static final String ACCESS_KEY = "test-access";
+    private static final String SECRET_KEY = "test-secret";
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+    private static final String USER = "s3-test";
+
+    private static BlobStoreContext blobStore;
+    private static S3Proxy proxy;
+    private static S3PhotoStorageStrategy storage;
+
+    @BeforeAll
+    static void startStandIn() throws Exception {
+        blobStore = ContextBuilder.newBuilder("transient")
+                .credentials("identity", "credential")
+                .build(BlobStoreContext.class);
+        proxy = S3Proxy.builder()
+                .blobStore(blobStore.getBlobStore())
+                .endpoint(URI.create("http://127.0.0.1:0"))
+                .awsAuthentication(AuthenticationType.AWS_V2_OR_V4, ACCESS_KEY, SECRET_KEY)
+                .build();
+        proxy.start();
+        while (!"STARTED".equals(proxy.getState())) {
+            Thread.sleep(10);
+        }
+
+        storage = new S3PhotoStorageStrategy(new LocalPhotoStorageStrategy(),
+                "http://127.0.0.1:" + proxy.getPort(), "us-east-1", "photoapp-test", ACCESS_KEY, SECRET_KEY,
+                true, true, 8, PART_SIZE, PART_SIZE, 4);
+    }
+
+    @AfterAll
+    static void stopStandIn() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+        if (proxy != null) {
+            proxy.stop();
+        }
+        if (blobStore != null) {
+            blobStore.close();
+        }
+    }
+
+    @Test
+    void largeFileGoesUpInPartsAndComesBackWithRangedReads() throws IOException {
+        // not a multiple of the part size, so the last part and the last range are short
+        byte[] data = randomBytes(2 * PART_SIZE + 12345, 1);
+        long uploads = counter("multipartUploads");
+        long parts = counter("partsTransferred");
+        long reads = counter("rangedReads");
+
+        storage.store(USER, "large.jpg", data);
+
+        assertEquals(uploads + 1, counter("multipartUploads"));
+        assertEquals(parts + 3, counter("partsTransferred"));
+        assertArrayEquals(data, storage.load("/uploads/" + USER + "/large.jpg"));
+        assertEquals(reads + 1, counter("rangedReads"));
+
+        try (StoredContent content = storage.open("/uploads/" + USER + "/large.jpg");
+             InputStream in = content.inputStream()) {
+            assertEquals(data.length, content.getLength());
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        assertEquals(reads + 2, counter("rangedReads"));
+    }
+
+    @Test
+    void streamedUploadIsReadAPartAtATime() throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 3 / 2, 2);
+        long uploads = counter("multipartUploads");
+
+        long stored = storage.store(USER, "streamed.jpg", new ByteArrayInputStream(data));
+
+        assertEquals(data.length, stored);
+        assertEquals(uploads + 1, counter("multipartUploads"));
+        assertArrayEquals(data, storage.load("/uploads/" + USER + "/streamed.jpg"));
+    }
+
+    @Test
+    void smallFileIsOnePutAndOneGet() throws IOException {
+        byte[] data = randomBytes(1000, 3);
+        long uploads = counter("multipartUploads");
+        long reads = counter("rangedReads");
+
+        storage.store(USER, "small.jpg", data);
+
+        assertEquals(uploads, counter("multipartUploads"));
+        assertArrayEquals(data, storage.load("/uploads/" + USER + "/small.jpg"));
+        assertEquals(reads, counter("rangedReads"));
+    }
+
+    @Test
+    void deletedFileIsGone() throws IOException {
+        String path = "/uploads/" + USER + "/deleted.jpg";
+        storage.store(USER, "deleted.jpg", randomBytes(PART_SIZE + 1, 4));
+        assertTrue(storage.exists(path));
+
+        storage.delete(path);
+
+        assertFalse(storage.exists(path));
+        assertThrows(IOException.class, () -> storage.load(path));
+        assertThrows(IOException.class, () -> storage.open(path));
+    }
+
+    @Test
+    void copyIsServerSide() throws IOException {
+        byte[] data = randomBytes(PART_SIZE + 7, 5);
+        storage.store(USER, "source.jpg", data);
+
+        storage.copy("/uploads/" + USER + "/source.jpg", USER, "copy.jpg");
+
+        assertArrayEquals(data, storage.load("/uploads/" + USER + "/copy.jpg"));
+    }
+
+    @Test
+    void openedLargeFileServesAByteRange() throws IOException {
+        byte[] data = randomBytes(2 * PART_SIZE + 100, 6);
+        storage.store(USER, "range.jpg", data);
+
+        // a range across the end of the first part, the rest of it one ranged GET of just those bytes
+        int from = PART_SIZE - 50;
+        int count = 200;
+        long reads = counter("rangedReads");
+        long parts = counter("partsTransferred");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (StoredContent content = storage.open("/uploads/" + USER + "/range.jpg")) {
+            assertEquals(count, content.transferTo(from, count, Channels.newChannel(out)));
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, from, from + count), out.toByteArray());
+        assertEquals(reads + 1, counter("rangedReads"));
+        assertEquals(parts, counter("partsTransferred"));
+    }
+
+    @Test
+    void openedLargeFileIsNotFetchedUntilRead() throws IOException {
+        byte[] data = randomBytes(2 * PART_SIZE + 100, 7);
+        storage.store(USER, "lazy.jpg", data);
+        long reads = counter("rangedReads");
+
+        try (StoredContent content = storage.open("/uploads/" + USER + "/lazy.jpg");
+             InputStream in = content.inputStream()) {
+            assertEquals(data.length, content.getLength());
+            // within the first part, already fetched with the open
+            assertArrayEquals(Arrays.copyOf(data, 1000), in.readNBytes(1000));
+            assertEquals(reads, counter("rangedReads"));
+        }
+        assertEquals(reads, counter("rangedReads"));
+    }
+
+    private static long counter(String name) {
+        return ((Number) storage.getStatistics().get(name)).longValue();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,75 @@
+package hr.algebra.photoapp.util;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Simple timing harness for the colour kernels on a 12 MP buffer, single-threaded, after warm-up.
+// Not part of the normal build: mvn -Pbenchmark test
+@Tag("benchmark")
+class ColorKernelBenchmark {
+
+    private static final int PIXELS = 4000 * 3000;
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    @Test
+    void colorKernels() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+
+        int[] src = new Random(1).ints(PIXELS).toArray();
+        int[] scalarOut = new int[PIXELS];
+        int[] vectorOut = new int[PIXELS];
+        Map<String, ColorMatrix> matrices = new LinkedHashMap<>();
+        matrices.put("contrast+brightness+saturation", ColorMatrix.contrast(30)
+                .then(ColorMatrix.brightness(10)).then(ColorMatrix.saturation(1.4)));
+        matrices.put("grayscale", ColorMatrix.grayscale());
+
+        for (Map.Entry<String, ColorMatrix> matrix : matrices.entrySet()) {
+            int[] m = matrix.getValue().toFixedPoint();
+            double scalar = time(PixelKernels.scalarColorMatrix(m), src, scalarOut);
+            double vector = time(VectorColorKernels.colorMatrix(m), src, vectorOut);
+            assertArrayEquals(scalarOut, vectorOut);
+            System.out.printf("%s: scalar %.1f ms, vector %.1f ms (%.1fx)%n",
+                    matrix.getKey(), scalar, vector, scalar / vector);
+        }
+
+        // what the fused matrix replaces: one scalar pass per adjustment
+        List<PixelKernels.Kernel> separate = List.of(
+                PixelKernels.scalarColorMatrix(ColorMatrix.contrast(30).toFixedPoint()),
+                PixelKernels.scalarColorMatrix(ColorMatrix.brightness(10).toFixedPoint()),
+                PixelKernels.scalarColorMatrix(ColorMatrix.saturation(1.4).toFixedPoint()));
+        double passes = time((s, d, from, to) -> {
+            separate.get(0).apply(s, d, from, to);
+            for (int k = 1; k < separate.size(); k++) {
+                separate.get(k).apply(d, d, from, to);
+            }
+        }, src, scalarOut);
+        System.out.printf("three separate scalar passes: %.1f ms%n", passes);
+        System.out.printf("gamma lookup: %.1f ms%n", time(PixelKernels.gamma(1.8), src, scalarOut));
+    }
+
+    // median milliseconds per pass over the whole buffer
+    private static double time(PixelKernels.Kernel kernel, int[] src, int[] dst) {
+        for (int i = 0; i < WARMUP; i++) {
+            kernel.apply(src, dst, 0, src.length);
+        }
+        long[] nanos = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long started = System.nanoTime();
+            kernel.apply(src, dst, 0, src.length);
+            nanos[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(nanos);
+        return nanos[RUNS / 2] / 1e6;
+    }
+}
@@ -0,0 +1,70 @@
+package hr.algebra.photoapp.util;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The SIMD colour matrix must give exactly the pixels of the scalar loop, tails and overflow included
+class VectorColorKernelsTest {
+
+    private static final List<ColorMatrix> MATRICES = List.of(
+            ColorMatrix.identity(),
+            ColorMatrix.grayscale(),
+            ColorMatrix.saturation(2.5),
+            ColorMatrix.brightness(60),
+            ColorMatrix.brightness(-100),
+            ColorMatrix.contrast(100),
+            ColorMatrix.contrast(-80),
+            ColorMatrix.channelMix(new double[]{-1, 2, 0.5, 0.3, -0.7, 1.4, 3, -2, -1}),
+            ColorMatrix.contrast(40).then(ColorMatrix.brightness(-25)).then(ColorMatrix.saturation(1.8)));
+
+    @BeforeAll
+    static void vectorModulePresent() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+    }
+
+    @Test
+    void matchesScalarForEveryPixelValue() {
+        // every alpha and channel value shows up, in random combinations
+        int[] src = new Random(42).ints(1 << 20).toArray();
+        for (ColorMatrix matrix : MATRICES) {
+            assertSameOutput(matrix, src, 0, src.length);
+        }
+    }
+
+    @Test
+    void matchesScalarOnRangesThatEndMidVector() {
+        int[] src = new Random(7).ints(300).toArray();
+        ColorMatrix matrix = ColorMatrix.contrast(70).then(ColorMatrix.brightness(15));
+        for (int from = 0; from < 40; from += 3) {
+            for (int to = from; to <= src.length; to += 17) {
+                assertSameOutput(matrix, src, from, to);
+            }
+        }
+    }
+
+    @Test
+    void matchesScalarInPlace() {
+        int[] pixels = new Random(3).ints(10_000).toArray();
+        int[] expected = pixels.clone();
+        int[] m = ColorMatrix.saturation(0.4).toFixedPoint();
+        PixelKernels.scalarColorMatrix(m).apply(expected, expected, 0, expected.length);
+        VectorColorKernels.colorMatrix(m).apply(pixels, pixels, 0, pixels.length);
+        assertArrayEquals(expected, pixels);
+    }
+
+    private static void assertSameOutput(ColorMatrix matrix, int[] src, int from, int to) {
+        int[] m = matrix.toFixedPoint();
+        int[] expected = new int[src.length];
+        int[] actual = new int[src.length];
+        PixelKernels.scalarColorMatrix(m).apply(src, expected, from, to);
+        VectorColorKernels.colorMatrix(m).apply(src, actual, from, to);
+        assertArrayEquals(expected, actual, () -> matrix + " over [" + from + ", " + to + ")");
+    }
+}